@@ -0,0 +1,68 @@
+package info.kgeorgiy.ja.murashov.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Compares {@link IterativeParallelism#any} with the only match near the front of the list
+ * against a full scan, which is how chunks without a match ran before they stopped early.
+ * The full scan tests every value through {@link IterativeParallelism#map}.
+ * Usage: {@code AnyBenchmark [threads] [values] [predicate micros] [match index] [rounds]}.
+ */
+public class AnyBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        if (args == null || args.length > 5) {
+            System.err.println("Usage: AnyBenchmark [threads] [values] [predicate micros] [match index] [rounds]");
+            return;
+        }
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final int size = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        final long micros = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        final int match = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        final int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        final List<Integer> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(i);
+        }
+        final Predicate<Integer> predicate = value -> {
+            final long end = System.nanoTime() + micros * 1000;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            return value == match;
+        };
+
+        try (IterativeParallelism parallelism = new IterativeParallelism()) {
+            report("any", measure(rounds, () -> parallelism.any(threads, values, predicate)));
+            report("full scan", measure(rounds, () -> parallelism.map(threads, values, predicate::test).contains(true)));
+        }
+    }
+
+    private static double measure(int rounds, Run run) throws InterruptedException {
+        for (int i = 0; i < rounds; i++) {
+            check(run.run());
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            check(run.run());
+        }
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    private static void check(boolean found) {
+        if (!found) {
+            throw new AssertionError("The match was not found");
+        }
+    }
+
+    private static void report(String name, double millis) {
+        System.out.printf("%-10s %10.2f ms/op%n", name, millis);
+    }
+
+    @FunctionalInterface
+    private interface Run {
+        boolean run() throws InterruptedException;
+    }
+}
@@ -0,0 +1,239 @@
+package info.kgeorgiy.ja.murashov.concurrent;
+
+import info.kgeorgiy.java.advanced.concurrent.ListIP;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * List iterative parallelism support on work-stealing {@link ForkJoinPool}s.
+ * Values are split recursively into leaves of {@code grainSize} values, so threads finishing
+ * cheap leaves steal the remaining ones instead of waiting for one slow static chunk.
+ * Each leaf writes its result into its own slot, and slots are combined once in list order.
+ * Calls with the same number of threads share a pool of exactly that many threads.
+ * At most {@value MAX_POOLS} pools are kept, the least recently used one is shut down to make room.
+ *
+ * @author Ivan Murashov
+ */
+public class ForkJoinIterativeParallelism implements ListIP, AutoCloseable {
+    private static final int LEAVES_PER_THREAD = 8;
+    private static final int MAX_POOLS = 4;
+
+    private final int grainSize;
+    private final Map<Integer, ForkJoinPool> pools = new LinkedHashMap<>(MAX_POOLS, 0.75f, true);
+    private boolean closed;
+
+    /**
+     * Creates an instance choosing grain size so that every thread gets about {@value LEAVES_PER_THREAD} leaves.
+     */
+    public ForkJoinIterativeParallelism() {
+        this(0);
+    }
+
+    /**
+     * @param grainSize number of values processed sequentially by one leaf task,
+     *                  {@code 0} to choose it from the list size and the number of threads.
+     */
+    public ForkJoinIterativeParallelism(int grainSize) {
+        if (grainSize < 0) {
+            throw new IllegalArgumentException("Grain size has to be non-negative instead of " + grainSize);
+        }
+        this.grainSize = grainSize;
+    }
+
+    @Override
+    public <T> T maximum(int threads, List<? extends T> values, Comparator<? super T> comparator) throws
+            InterruptedException {
+        if (values.isEmpty()) {
+            throw new NoSuchElementException("No values are given");
+        }
+        List<T> maximums = leafResults(threads, values, l -> Collections.max(l, comparator));
+        return Collections.max(maximums, comparator);
+    }
+
+    @Override
+    public <T> T minimum(int threads, List<? extends T> values, Comparator<? super T> comparator) throws
+            InterruptedException {
+        return maximum(threads, values, comparator.reversed());
+    }
+
+    @Override
+    public <T> boolean all(int threads, List<? extends T> values, Predicate<? super T> predicate) throws
+            InterruptedException {
+        return !any(threads, values, predicate.negate());
+    }
+
+    @Override
+    public <T> boolean any(int threads, List<? extends T> values, Predicate<? super T> predicate) throws
+            InterruptedException {
+        AtomicBoolean found = new AtomicBoolean();
+        forEachLeaf(threads, values.size(), (leaf, from, to) -> {
+            for (final T value : values.subList(from, to)) {
+                if (found.get()) {
+                    return;
+                }
+                if (predicate.test(value)) {
+                    found.set(true);
+                    return;
+                }
+            }
+        });
+        return found.get();
+    }
+
+    @Override
+    public String join(int threads, List<?> values) throws InterruptedException {
+        List<String> parts = leafResults(threads, values, l -> {
+            StringBuilder builder = new StringBuilder();
+            l.forEach(builder::append);
+            return builder.toString();
+        });
+        StringBuilder result = new StringBuilder(parts.stream().mapToInt(String::length).sum());
+        parts.forEach(result::append);
+        return result.toString();
+    }
+
+    @Override
+    public <T> List<T> filter(int threads, List<? extends T> values, Predicate<? super T> predicate) throws
+            InterruptedException {
+        List<List<T>> parts = leafResults(threads, values, l -> {
+            List<T> part = new ArrayList<>();
+            for (final T value : l) {
+                if (predicate.test(value)) {
+                    part.add(value);
+                }
+            }
+            return part;
+        });
+        List<T> result = new ArrayList<>(parts.stream().mapToInt(List::size).sum());
+        parts.forEach(result::addAll);
+        return result;
+    }
+
+    @Override
+    public <T, U> List<U> map(int threads, List<? extends T> values, Function<? super T, ? extends U> f) throws
+            InterruptedException {
+        Object[] result = new Object[values.size()];
+        forEachLeaf(threads, values.size(), (leaf, from, to) -> {
+            int i = from;
+            for (final T value : values.subList(from, to)) {
+                result[i++] = f.apply(value);
+            }
+        });
+        @SuppressWarnings("unchecked")
+        List<U> list = (List<U>) Arrays.asList(result);
+        return list;
+    }
+
+    private <T, U> List<U> leafResults(int threads, List<? extends T> values,
+                                       Function<List<? extends T>, U> function) throws InterruptedException {
+        int grain = grain(threads, values.size());
+        Object[] results = new Object[(values.size() + grain - 1) / grain];
+        forEachLeaf(threads, values.size(), (leaf, from, to) -> results[leaf] = function.apply(values.subList(from, to)));
+        @SuppressWarnings("unchecked")
+        List<U> list = (List<U>) Arrays.asList(results);
+        return list;
+    }
+
+    private void forEachLeaf(int threads, int size, LeafAction action) throws InterruptedException {
+        int grain = grain(threads, size);
+        if (threads <= 1 || size <= grain) {
+            for (int from = 0; from < size; from += grain) {
+                action.apply(from / grain, from, Math.min(from + grain, size));
+            }
+            return;
+        }
+        ForkJoinTask<Void> task = submit(threads, new Leaves(0, size, grain, action));
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            throw e;
+        }
+    }
+
+    private int grain(int threads, int size) {
+        if (grainSize > 0) {
+            return grainSize;
+        }
+        long leaves = (long) Math.max(threads, 1) * LEAVES_PER_THREAD;
+        return (int) Math.max(1, (size + leaves - 1) / leaves);
+    }
+
+    /**
+     * Submits {@code task} to the pool of {@code threads} threads.
+     * An evicted pool is shut down gracefully, so tasks already submitted to it complete.
+     */
+    private synchronized ForkJoinTask<Void> submit(int threads, Leaves task) {
+        if (closed) {
+            throw new IllegalStateException("ForkJoinIterativeParallelism is closed");
+        }
+        ForkJoinPool pool = pools.get(threads);
+        if (pool == null) {
+            if (pools.size() == MAX_POOLS) {
+                Iterator<ForkJoinPool> eldest = pools.values().iterator();
+                eldest.next().shutdown();
+                eldest.remove();
+            }
+            pool = new ForkJoinPool(threads);
+            pools.put(threads, pool);
+        }
+        return pool.submit(task);
+    }
+
+    /**
+     * Shuts all pools down. Later calls with more than one thread fail with {@link IllegalStateException}.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        pools.values().forEach(ForkJoinPool::shutdownNow);
+    }
+
+    @FunctionalInterface
+    private interface LeafAction {
+        void apply(int leaf, int from, int to);
+    }
+
+    /**
+     * Splits {@code [from, to)} at multiples of {@code grain}, so that leaf {@code i} covers
+     * {@code [i * grain, (i + 1) * grain)}.
+     */
+    private static class Leaves extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final transient LeafAction action;
+
+        Leaves(int from, int to, int grain, LeafAction action) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                action.apply(from / grain, from, to);
+                return;
+            }
+            int leaves = (to - from + grain - 1) / grain;
+            int mid = from + leaves / 2 * grain;
+            invokeAll(new Leaves(from, mid, grain, action), new Leaves(mid, to, grain, action));
+        }
+    }
+}
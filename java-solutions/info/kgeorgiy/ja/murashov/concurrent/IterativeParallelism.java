@@ -4,57 +4,148 @@ import info.kgeorgiy.java.advanced.concurrent.ListIP;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * List iterative parallelism support.
  *
  * @author Ivan Murashov
  */
-public class IterativeParallelism implements ListIP {
+public class IterativeParallelism implements ListIP, AutoCloseable {
+
+    private static final int INITIAL_PART_CAPACITY = 16;
 
     private final ParallelMapper mapper;
+    private final int minChunkSize;
+    private ExecutorService pool;
+    private boolean closed;
 
+    /**
+     * Creates an instance running tasks on its own daemon thread pool, started on first use.
+     * Every call uses as many threads as requested, up to one per value.
+     */
     public IterativeParallelism() {
+        this(1);
+    }
+
+    /**
+     * Creates an instance running tasks on its own daemon thread pool, started on first use.
+     *
+     * @param minChunkSize minimal number of values per thread. Smaller lists use fewer threads,
+     *                     down to running on the calling thread only.
+     *                     Handing a chunk to a pool thread costs tens of microseconds, so chunks of
+     *                     about a thousand cheap values are the smallest worth a thread.
+     */
+    public IterativeParallelism(int minChunkSize) {
+        if (minChunkSize < 1) {
+            throw new IllegalArgumentException("Minimal chunk size has to be positive instead of " + minChunkSize);
+        }
         this.mapper = null;
+        this.minChunkSize = minChunkSize;
     }
 
     public IterativeParallelism(ParallelMapper mapper) {
         this.mapper = mapper;
+        this.minChunkSize = 1;
     }
 
     private <T, U, R> R getParallelStreams(int threadsCount, List<? extends T> list,
                                            Function<List<? extends T>, U> function,
                                            Function<List<U>, R> resultFunction
     ) throws InterruptedException {
-        threadsCount = Math.min(list.size(), threadsCount);
-        int threadSize = list.size() / threadsCount;
-        int reminder = list.size() % threadsCount;
-        ArrayList<List<? extends T>> ListForThreads = new ArrayList<>();
-        int i = 0;
-        while (i < list.size()) {
-            int new_i = i + threadSize + ((reminder > 0) ? 1 : 0);
-            ListForThreads.add(list.subList(i, new_i));
-            i = new_i;
-            reminder--;
+        return getParallelChunks(threadsCount, list.size(),
+                (from, to) -> function.apply(list.subList(from, to)),
+                resultFunction);
+    }
+
+    /**
+     * Splits indices {@code [0, size)} into at most {@code threadsCount} contiguous chunks of almost equal size,
+     * applies {@code function} to every chunk in parallel and combines chunk results in index order.
+     */
+    protected <U, R> R getParallelChunks(int threadsCount, int size,
+                                         ChunkFunction<U> function,
+                                         Function<List<U>, R> resultFunction
+    ) throws InterruptedException {
+        threadsCount = Math.min(size / minChunkSize, threadsCount);
+        if (threadsCount <= 1) {
+            return resultFunction.apply(Collections.singletonList(function.apply(0, size)));
         }
+        final int chunks = threadsCount;
+        final int threadSize = size / chunks;
+        final int reminder = size % chunks;
+        IntFunction<U> chunk = j -> function.apply(
+                j * threadSize + Math.min(j, reminder),
+                (j + 1) * threadSize + Math.min(j + 1, reminder)
+        );
         if (mapper != null) {
-            return resultFunction.apply(mapper.map(function, ListForThreads));
+            List<Integer> indices = new ArrayList<>(chunks);
+            for (int j = 0; j < chunks; j++) {
+                indices.add(j);
+            }
+            return resultFunction.apply(mapper.map(chunk::apply, indices));
         }
-        List<U> results = new ArrayList<>(Collections.nCopies(threadsCount, null));
-        Thread[] threads = new Thread[threadsCount];
-        for (int j = 0; j < threadsCount; j++) {
-            final int J = j;
-            threads[j] = new Thread(() -> results.set(J, function.apply(ListForThreads.get(J))));
-            threads[j].start();
+        ExecutorService pool = pool();
+        List<Future<U>> futures = new ArrayList<>(chunks - 1);
+        try {
+            for (int j = 1; j < chunks; j++) {
+                final int J = j;
+                futures.add(pool.submit(() -> chunk.apply(J)));
+            }
+            // the calling thread takes the first chunk itself
+            List<U> results = new ArrayList<>(chunks);
+            results.add(chunk.apply(0));
+            for (final Future<U> future : futures) {
+                results.add(future.get());
+            }
+            return resultFunction.apply(results);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Function computing result of a chunk {@code [from, to)} of indices.
+     */
+    @FunctionalInterface
+    protected interface ChunkFunction<U> {
+        U apply(int from, int to);
+    }
+
+    private synchronized ExecutorService pool() {
+        if (closed) {
+            throw new IllegalStateException("IterativeParallelism is closed");
         }
-        for (final Thread thread : threads) {
-            thread.join();
+        if (pool == null) {
+            pool = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return pool;
+    }
 
-        return resultFunction.apply(results);
+    /**
+     * Stops the thread pool. Does nothing for instances created with a {@link ParallelMapper}.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
     }
 
     /**
@@ -121,8 +212,21 @@ public class IterativeParallelism implements ListIP {
     @Override
     public <T> boolean any(int threads, List<? extends T> values, Predicate<? super T> predicate) throws
             InterruptedException {
+        // set by the first chunk finding a match, so that other chunks stop early
+        AtomicBoolean found = new AtomicBoolean();
         return getParallelStreams(threads, values,
-                l -> l.stream().anyMatch(predicate),
+                l -> {
+                    for (final T value : l) {
+                        if (found.get()) {
+                            return true;
+                        }
+                        if (predicate.test(value)) {
+                            found.set(true);
+                            return true;
+                        }
+                    }
+                    return false;
+                },
                 l -> l.stream().anyMatch(Boolean::booleanValue));
     }
 
@@ -138,9 +242,15 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public String join(int threads, List<?> values) throws InterruptedException {
-        return getParallelStreams(threads, values,
-                l -> l.stream().map(Object::toString).collect(Collectors.joining()),
-                l -> String.join("", l));
+        // strings of values are joined by a single copy into the result
+        String[] strings = new String[values.size()];
+        return getParallelChunks(threads, values.size(), (from, to) -> {
+            int i = from;
+            for (final Object value : values.subList(from, to)) {
+                strings[i++] = value.toString();
+            }
+            return null;
+        }, l -> String.join("", strings));
     }
 
     /**
@@ -155,9 +265,20 @@ public class IterativeParallelism implements ListIP {
     @Override
     public <T> List<T> filter(int threads, List<? extends T> values, Predicate<? super T> predicate) throws
             InterruptedException {
-        return getParallelStreams(threads, values,
-                l -> l.stream().filter(predicate).collect(Collectors.toList()),
-                l -> l.stream().flatMap(List::stream).collect(Collectors.toList()));
+        return getParallelChunks(threads, values.size(), (from, to) -> {
+            // grows on demand, so that a selective predicate keeps chunk buffers small
+            Object[] part = new Object[Math.min(to - from, INITIAL_PART_CAPACITY)];
+            int length = 0;
+            for (final T value : values.subList(from, to)) {
+                if (predicate.test(value)) {
+                    if (length == part.length) {
+                        part = Arrays.copyOf(part, Math.min(to - from, 2 * length));
+                    }
+                    part[length++] = value;
+                }
+            }
+            return new Part(part, length);
+        }, parts -> asList((Object[]) Part.concat(parts, new Object[Part.length(parts)])));
     }
 
     /**
@@ -172,9 +293,49 @@ public class IterativeParallelism implements ListIP {
     @Override
     public <T, U> List<U> map(int threads, List<? extends T> values, Function<? super T, ? extends
             U> function) throws InterruptedException {
-        return getParallelStreams(threads, values,
-                l -> l.stream().map(function).collect(Collectors.toList()),
-                l -> l.stream().flatMap(List::stream).collect(Collectors.toList()));
+        // chunks write straight into the result
+        Object[] result = new Object[values.size()];
+        return getParallelChunks(threads, values.size(), (from, to) -> {
+            int i = from;
+            for (final T value : values.subList(from, to)) {
+                result[i++] = function.apply(value);
+            }
+            return null;
+        }, l -> asList(result));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> asList(Object[] values) {
+        return (List<T>) Arrays.asList(values);
+    }
+
+    /**
+     * Prefix of a chunk-local array holding filtered values.
+     */
+    protected static class Part {
+        final Object array;
+        final int length;
+
+        Part(Object array, int length) {
+            this.array = array;
+            this.length = length;
+        }
+
+        static int length(List<Part> parts) {
+            return parts.stream().mapToInt(part -> part.length).sum();
+        }
+
+        /**
+         * Copies values of {@code parts} in order into {@code result} of {@link #length(List)} elements.
+         */
+        static Object concat(List<Part> parts, Object result) {
+            int position = 0;
+            for (final Part part : parts) {
+                System.arraycopy(part.array, 0, result, position, part.length);
+                position += part.length;
+            }
+            return result;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package info.kgeorgiy.ja.murashov.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Compares {@link ParallelMapperImpl#map} handing elements to threads one by one against batched dispatch,
+ * for a cheap and an expensive function.
+ * Usage: {@code ParallelMapperBenchmark [threads] [values] [expensive micros] [rounds]}.
+ */
+public class ParallelMapperBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        if (args == null || args.length > 4) {
+            System.err.println("Usage: ParallelMapperBenchmark [threads] [values] [expensive micros] [rounds]");
+            return;
+        }
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final int size = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        final long micros = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        final int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        final List<Integer> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(i);
+        }
+        final Function<Integer, Integer> cheap = value -> value * 31 + 7;
+        final Function<Integer, Integer> expensive = value -> {
+            final long end = System.nanoTime() + micros * 1000;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            return value;
+        };
+        // the expensive function runs on fewer values to keep rounds short
+        final List<Integer> few = values.subList(0, (int) Math.min(size, Math.max(1, 200_000 / Math.max(1, micros))));
+
+        final ParallelMapperImpl mapper = new ParallelMapperImpl(threads);
+        try {
+            report("cheap", "per element", size, measure(rounds, () -> mapper.map(cheap, values, 1)));
+            report("cheap", "batched", size, measure(rounds, () -> mapper.map(cheap, values)));
+            report("expensive", "per element", few.size(), measure(rounds, () -> mapper.map(expensive, few, 1)));
+            report("expensive", "batched", few.size(), measure(rounds, () -> mapper.map(expensive, few)));
+        } finally {
+            mapper.close();
+        }
+    }
+
+    private static double measure(int rounds, Run run) throws InterruptedException {
+        for (int i = 0; i < rounds; i++) {
+            run.run();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            run.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    private static void report(String function, String dispatch, int size, double millis) {
+        System.out.printf("%-10s %-12s %8d values %10.2f ms/op%n", function, dispatch, size, millis);
+    }
+
+    @FunctionalInterface
+    private interface Run {
+        void run() throws InterruptedException;
+    }
+}
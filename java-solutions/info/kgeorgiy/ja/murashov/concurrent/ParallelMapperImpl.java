@@ -3,30 +3,28 @@ package info.kgeorgiy.ja.murashov.concurrent;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class ParallelMapperImpl implements ParallelMapper {
 
     final int threadsCount;
-    private final Queue<Runnable> tasks = new ArrayDeque<>();
-    final List<Thread> threads;
-    final Runnable threadGeneratorRunnable = () -> {
-        try {
-            while (!Thread.interrupted()) {
-                Runnable task;
-                synchronized (tasks) {
-                    while (tasks.isEmpty()) {
-                        tasks.wait();
-                    }
-                    task = tasks.poll();
-                }
-                task.run();
-            }
-        } catch (InterruptedException ignored) {
-        } finally {
-            Thread.currentThread().interrupt();
-        }
-    };
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final Set<Call> activeCalls = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private static final int BATCHES_PER_THREAD = 4;
+    /**
+     * Target duration of one batch, which bounds how long a thread serves one call before switching to the next.
+     */
+    private static final long QUANTUM_NANOS = 1_000_000;
 
     /**
      * Class constructor.
@@ -34,86 +32,443 @@ public class ParallelMapperImpl implements ParallelMapper {
      */
     public ParallelMapperImpl(int threads) {
         this.threadsCount = threads;
-        // :NOTE: лишний this.
-        this.threads = new ArrayList<>();
+        workers = new Worker[threads];
         for (int i = 0; i < threads; i++) {
-            this.threads.add(new Thread(threadGeneratorRunnable));
+            workers[i] = new Worker(i);
+        }
+        for (final Worker worker : workers) {
+            worker.thread.start();
         }
-        this.threads.forEach(Thread::start);
     }
 
     /**
      * Maps function {@code f} over specified {@code args}.
-     * Mapping for each element performs in parallel.
+     * Mapping for each element performs in parallel, elements are handed to threads in batches.
+     * Concurrent calls share threads fairly: each thread serves its calls one batch at a time in turn.
      *
-     * @throws InterruptedException if calling thread was interrupted
+     * @throws InterruptedException if calling thread was interrupted, unfinished batches of the call are dropped
+     * @throws IllegalStateException if the mapper is or gets closed before the call completes
      */
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> function, List<? extends T> list) throws InterruptedException {
-        // :NOTE: с большой буквы названия, ArrayList
-        ArrayList<Runnable> ListForThreads = new ArrayList<>();
-        ResultList<R> answer = new ResultList<>(list.size());
-
-        // :NOTE: IntRange
-        for (int j = 0; j < list.size(); j++) {
-            final int J = j;
-            ListForThreads.add(() -> {
-                        R result = function.apply(list.get(J));
-                        answer.set(J, result);
-                    }
-            );
+        return map(function, list, batchSize(list.size()));
+    }
+
+    /**
+     * Same as {@link #map(Function, List)} with batches of at most {@code maxBatch} elements,
+     * {@code 1} hands elements to threads one by one.
+     */
+    <T, R> List<R> map(Function<? super T, ? extends R> function, List<? extends T> list, int maxBatch)
+            throws InterruptedException {
+        MapCall<T, R> call = new MapCall<>(function, list, maxBatch);
+        activeCalls.add(call);
+        try {
+            if (closed) {
+                throw new IllegalStateException("Mapper is closed");
+            }
+            int tokens = Math.min(workers.length, (list.size() + call.batch - 1) / call.batch);
+            for (int i = 0; i < tokens; i++) {
+                submit(call);
+            }
+            return call.answer.waiting();
+        } catch (InterruptedException e) {
+            cancel(call);
+            throw e;
+        } finally {
+            activeCalls.remove(call);
         }
-        synchronized (tasks) {
-            tasks.addAll(ListForThreads);
-            tasks.notifyAll();
+    }
+
+    /**
+     * Maps function {@code f} over elements of {@code input} with at most {@code window} elements
+     * mapped or waiting to be taken at once, passing results to {@code consumer} in completion order.
+     * Elements are taken from {@code input} and {@code consumer} is called in the calling thread.
+     * A {@link java.util.stream.Stream} is passed as {@code stream.iterator()}.
+     *
+     * @throws InterruptedException if calling thread was interrupted, unfinished elements are dropped
+     * @throws IllegalStateException if the mapper is or gets closed before all results are passed
+     */
+    public <T, R> void map(Function<? super T, ? extends R> function, Iterator<? extends T> input, int window,
+                           Consumer<? super R> consumer) throws InterruptedException {
+        StreamCall<T, R> call = new StreamCall<>(function, input, window, false);
+        boolean completed = false;
+        try {
+            while (call.hasNext()) {
+                consumer.accept(call.nextResult());
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                cancel(call);
+            }
         }
+    }
+
+    /**
+     * Lazily maps function {@code f} over elements of {@code input} with at most {@code window} elements
+     * mapped or waiting to be taken at once. Results are returned in the order of {@code input}.
+     * Elements are taken from {@code input} by the thread iterating the result.
+     * {@link Iterator#next()} rethrows exceptions of {@code f} for its element and throws
+     * {@link CancellationException} if the iterating thread was interrupted.
+     *
+     * @throws IllegalStateException from {@link Iterator#next()} if the mapper is or gets closed
+     */
+    public <T, R> Iterator<R> mapOrdered(Function<? super T, ? extends R> function, Iterator<? extends T> input,
+                                         int window) {
+        return new StreamCall<>(function, input, window, true);
+    }
 
-        return answer.waiting();
+    /**
+     * Same as {@link #mapOrdered(Function, Iterator, int)}, but results are returned in completion order.
+     */
+    public <T, R> Iterator<R> mapUnordered(Function<? super T, ? extends R> function, Iterator<? extends T> input,
+                                           int window) {
+        return new StreamCall<>(function, input, window, false);
     }
 
+    /**
+     * Largest batch size for {@code size} elements: about {@link #BATCHES_PER_THREAD} batches per thread,
+     * so that the queues are touched rarely but uneven batches still balance out.
+     */
+    private int batchSize(int size) {
+        return Math.max(1, size / (workers.length * BATCHES_PER_THREAD));
+    }
 
     /**
-     * Stops all threads. All unfinished mappings leave in undefined state.
+     * Hands the call to the next worker in round-robin order. Idle workers steal calls from busy ones.
+     */
+    private void submit(Call call) {
+        Worker worker = workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+        worker.tasks.offer(call);
+        LockSupport.unpark(worker.thread);
+    }
+
+    private void cancel(Call call) {
+        call.abort(null);
+        for (final Worker worker : workers) {
+            worker.tasks.removeIf(task -> task == call);
+        }
+    }
+
+    /**
+     * Stops all threads. Unfinished mappings fail with {@link IllegalStateException}.
      */
     @Override
     public synchronized void close() {
-        threads.forEach(Thread::interrupt);
-        for (Thread thread : threads) {
+        closed = true;
+        // callers fail at once, even if a mapped function keeps a worker busy
+        for (final Call call : activeCalls) {
+            call.abort(new IllegalStateException("Mapper is closed"));
+        }
+        for (final Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        for (final Worker worker : workers) {
             try {
-                thread.join();
+                worker.thread.join();
             } catch (InterruptedException ignored) {
             }
         }
     }
 
+    private class Worker implements Runnable {
+        final int index;
+        final Queue<Call> tasks = new ConcurrentLinkedQueue<>();
+        final Thread thread = new Thread(this);
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            // mapped functions may swallow the interrupt of close()
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                Call call = poll();
+                if (call == null) {
+                    // a call submitted after poll() leaves a permit, so park() returns at once
+                    LockSupport.park(this);
+                } else if (call.runBatch()) {
+                    // back to the tail, behind the other calls of this thread
+                    tasks.offer(call);
+                }
+            }
+        }
+
+        private Call poll() {
+            Call call = tasks.poll();
+            for (int i = 1; call == null && i < workers.length; i++) {
+                call = workers[(index + i) % workers.length].tasks.poll();
+            }
+            return call;
+        }
+    }
+
+    /**
+     * Work of one caller, queued to the workers.
+     */
+    private interface Call {
+        /**
+         * Runs the next part of the call.
+         *
+         * @return whether the call has to be queued again.
+         */
+        boolean runBatch();
+
+        /**
+         * Drops the rest of the call and wakes its caller, which throws {@code e} if one is given.
+         */
+        void abort(RuntimeException e);
+    }
+
+    /**
+     * One {@link #map} call. Every submitted copy of it claims one batch per run, writing results
+     * straight into the {@link ResultList}. Batches start with one element and are resized
+     * from the measured cost of an element to last about {@link #QUANTUM_NANOS}, up to {@code batch}.
+     */
+    private static class MapCall<T, R> implements Call {
+        final Function<? super T, ? extends R> function;
+        final List<? extends T> list;
+        final int batch;
+        final ResultList<R> answer;
+        final AtomicInteger nextIndex = new AtomicInteger();
+        volatile int currentBatch = 1;
+
+        MapCall(Function<? super T, ? extends R> function, List<? extends T> list, int batch) {
+            this.function = function;
+            this.list = list;
+            this.batch = batch;
+            this.answer = new ResultList<>(list.size());
+        }
+
+        /**
+         * Maps the next unclaimed batch.
+         *
+         * @return whether there may be more batches to claim.
+         */
+        @Override
+        public boolean runBatch() {
+            if (answer.aborted) {
+                return false;
+            }
+            // other workers rewrite currentBatch, the claimed range has to be the processed one
+            int batch = currentBatch;
+            int from = nextIndex.getAndAdd(batch);
+            if (from >= list.size()) {
+                return false;
+            }
+            int to = Math.min(list.size(), from + batch);
+            long start = System.nanoTime();
+            try {
+                // after a failure the rest is only counted down
+                for (int i = from; i < to && answer.error.get() == null; i++) {
+                    answer.results[i] = function.apply(list.get(i));
+                }
+            } catch (RuntimeException | Error e) {
+                answer.error.compareAndSet(null, e);
+            }
+            long perElement = Math.max(1, (System.nanoTime() - start) / (to - from));
+            currentBatch = (int) Math.max(1, Math.min(this.batch, QUANTUM_NANOS / perElement));
+            answer.done(to - from);
+            return to < list.size();
+        }
+
+        @Override
+        public void abort(RuntimeException e) {
+            answer.abort(e);
+        }
+    }
+
+    /**
+     * Streaming call. Every submitted element is queued as a separate run of the call,
+     * completed elements are collected until the iterating thread takes them.
+     */
+    private class StreamCall<T, R> implements Call, Iterator<R> {
+        final Function<? super T, ? extends R> function;
+        final Iterator<? extends T> input;
+        final int window;
+        final boolean ordered;
+        final Queue<Element<T, R>> pending = new ConcurrentLinkedQueue<>();
+        final Queue<Element<T, R>> completed = new ConcurrentLinkedQueue<>();
+        // completed, but not yet taken by the iterating thread; ordered by index in ordered mode
+        final Queue<Element<T, R>> ready;
+        long submitted;
+        long delivered;
+        volatile Thread waiter;
+        volatile boolean aborted;
+        volatile RuntimeException abortError;
+
+        StreamCall(Function<? super T, ? extends R> function, Iterator<? extends T> input, int window, boolean ordered) {
+            if (window <= 0) {
+                throw new IllegalArgumentException("Window has to be positive instead of " + window);
+            }
+            this.function = function;
+            this.input = input;
+            this.window = window;
+            this.ordered = ordered;
+            this.ready = ordered ? new PriorityQueue<>(Comparator.comparingLong(e -> e.index)) : new ArrayDeque<>();
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            return delivered < submitted;
+        }
+
+        @Override
+        public R next() {
+            try {
+                return nextResult();
+            } catch (InterruptedException e) {
+                cancel(this);
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for a result");
+            }
+        }
+
+        R nextResult() throws InterruptedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more elements to map");
+            }
+            Element<T, R> element = await();
+            delivered++;
+            fill();
+            if (element.error instanceof Error) {
+                throw (Error) element.error;
+            }
+            if (element.error != null) {
+                throw (RuntimeException) element.error;
+            }
+            return element.result;
+        }
+
+        private void fill() {
+            while (!aborted && submitted - delivered < window && input.hasNext()) {
+                pending.offer(new Element<>(submitted++, input.next()));
+                submit(this);
+            }
+        }
+
+        private Element<T, R> await() throws InterruptedException {
+            waiter = Thread.currentThread();
+            activeCalls.add(this);
+            try {
+                while (true) {
+                    if (closed && !aborted) {
+                        abort(new IllegalStateException("Mapper is closed"));
+                    }
+                    if (aborted) {
+                        throw abortError != null ? abortError : new CancellationException("Mapping is cancelled");
+                    }
+                    for (Element<T, R> element; (element = completed.poll()) != null; ) {
+                        ready.add(element);
+                    }
+                    Element<T, R> head = ready.peek();
+                    if (head != null && (!ordered || head.index == delivered)) {
+                        return ready.poll();
+                    }
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                activeCalls.remove(this);
+            }
+        }
+
+        @Override
+        public boolean runBatch() {
+            Element<T, R> element = pending.poll();
+            if (element != null) {
+                if (!aborted) {
+                    try {
+                        element.result = function.apply(element.value);
+                    } catch (RuntimeException | Error e) {
+                        element.error = e;
+                    }
+                }
+                completed.offer(element);
+                Thread thread = waiter;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void abort(RuntimeException e) {
+            abortError = e;
+            aborted = true;
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private static class Element<T, R> {
+        final long index;
+        final T value;
+        R result;
+        Throwable error;
+
+        Element(long index, T value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Results of one {@link #map} call, completed by an atomic countdown.
+     */
     private static class ResultList<R> {
-        final List<R> results;
-        int done;
+        final Object[] results;
+        final AtomicInteger remaining;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread waiter = Thread.currentThread();
+        volatile boolean aborted;
 
         public ResultList(int size) {
-            this.results = new ArrayList<>(Collections.nCopies(size, null));
-            this.done = 0;
+            this.results = new Object[size];
+            this.remaining = new AtomicInteger(size);
         }
 
-        public void set(int index, R result) {
-            synchronized (results) {
-                results.set(index, result);
-                done++;
-                if (done == results.size()) {
-                    results.notify();
-                }
+        public void done(int count) {
+            if (remaining.addAndGet(-count) == 0) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        /**
+         * Wakes the waiter without results, it throws {@code e} if one is given.
+         */
+        public void abort(RuntimeException e) {
+            if (e != null) {
+                error.set(e);
             }
+            aborted = true;
+            LockSupport.unpark(waiter);
         }
 
         public List<R> waiting() throws InterruptedException {
-            for (int j = 0; j < results.size(); j++) {
-                synchronized (results) {
-                    while (done != results.size()) {
-                        results.wait();
-                    }
+            while (remaining.get() > 0 && !aborted) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
                 }
             }
-            return results;
+            Throwable e = error.get();
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            if (e != null) {
+                throw (RuntimeException) e;
+            }
+            @SuppressWarnings("unchecked")
+            List<R> list = (List<R>) Arrays.asList(results);
+            return list;
         }
     }
 }
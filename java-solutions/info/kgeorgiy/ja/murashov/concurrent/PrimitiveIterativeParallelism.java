@@ -0,0 +1,392 @@
+package info.kgeorgiy.ja.murashov.concurrent;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.*;
+
+/**
+ * Iterative parallelism over {@code int[]}, {@code long[]} and {@code double[]} without boxing of values.
+ * Arrays are split across threads or a {@link ParallelMapper} the same way lists are,
+ * and only per-chunk results are boxed.
+ *
+ * @author Ivan Murashov
+ */
+public class PrimitiveIterativeParallelism extends IterativeParallelism {
+
+    public PrimitiveIterativeParallelism() {
+    }
+
+    /**
+     * @param minChunkSize minimal number of values per thread, see {@link IterativeParallelism#IterativeParallelism(int)}.
+     */
+    public PrimitiveIterativeParallelism(int minChunkSize) {
+        super(minChunkSize);
+    }
+
+    public PrimitiveIterativeParallelism(ParallelMapper mapper) {
+        super(mapper);
+    }
+
+    // int[]
+
+    /**
+     * Returns maximum of int values.
+     *
+     * @throws java.util.NoSuchElementException if no values are given.
+     */
+    public int maximum(int threads, int[] values) throws InterruptedException {
+        requireNonEmpty(values.length);
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            int max = values[from];
+            for (int i = from + 1; i < to; i++) {
+                if (Integer.compare(values[i], max) > 0) {
+                    max = values[i];
+                }
+            }
+            return max;
+        }, l -> l.stream().max(Integer::compare).orElseThrow());
+    }
+
+    /**
+     * Returns minimum of int values.
+     *
+     * @throws java.util.NoSuchElementException if no values are given.
+     */
+    public int minimum(int threads, int[] values) throws InterruptedException {
+        requireNonEmpty(values.length);
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            int min = values[from];
+            for (int i = from + 1; i < to; i++) {
+                if (Integer.compare(values[i], min) < 0) {
+                    min = values[i];
+                }
+            }
+            return min;
+        }, l -> l.stream().min(Integer::compare).orElseThrow());
+    }
+
+    /**
+     * Returns whether any of int values satisfies predicate, stopping all threads at the first match.
+     */
+    public boolean any(int threads, int[] values, IntPredicate predicate) throws InterruptedException {
+        AtomicBoolean found = new AtomicBoolean();
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            for (int i = from; i < to && !found.get(); i++) {
+                if (predicate.test(values[i])) {
+                    found.set(true);
+                }
+            }
+            return found.get();
+        }, l -> found.get());
+    }
+
+    /**
+     * Returns whether all int values satisfy predicate, stopping all threads at the first mismatch.
+     */
+    public boolean all(int threads, int[] values, IntPredicate predicate) throws InterruptedException {
+        return !any(threads, values, predicate.negate());
+    }
+
+    /**
+     * Returns number of int values satisfying predicate.
+     */
+    public int count(int threads, int[] values, IntPredicate predicate) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(values[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }, l -> l.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Returns sum of int values as long.
+     */
+    public long sum(int threads, int[] values) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }, l -> l.stream().mapToLong(Long::longValue).sum());
+    }
+
+    /**
+     * Returns int values satisfying predicate in their original order.
+     */
+    public int[] filter(int threads, int[] values, IntPredicate predicate) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            int[] part = new int[to - from];
+            int length = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(values[i])) {
+                    part[length++] = values[i];
+                }
+            }
+            return new Part(part, length);
+        }, parts -> (int[]) Part.concat(parts, new int[Part.length(parts)]));
+    }
+
+    /**
+     * Maps int values. Results are written straight into the returned array.
+     */
+    public int[] map(int threads, int[] values, IntUnaryOperator function) throws InterruptedException {
+        int[] result = new int[values.length];
+        getParallelChunks(threads, values.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                result[i] = function.applyAsInt(values[i]);
+            }
+            return null;
+        }, l -> null);
+        return result;
+    }
+
+    // long[]
+
+    /**
+     * Returns maximum of long values.
+     *
+     * @throws java.util.NoSuchElementException if no values are given.
+     */
+    public long maximum(int threads, long[] values) throws InterruptedException {
+        requireNonEmpty(values.length);
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            long max = values[from];
+            for (int i = from + 1; i < to; i++) {
+                if (Long.compare(values[i], max) > 0) {
+                    max = values[i];
+                }
+            }
+            return max;
+        }, l -> l.stream().max(Long::compare).orElseThrow());
+    }
+
+    /**
+     * Returns minimum of long values.
+     *
+     * @throws java.util.NoSuchElementException if no values are given.
+     */
+    public long minimum(int threads, long[] values) throws InterruptedException {
+        requireNonEmpty(values.length);
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            long min = values[from];
+            for (int i = from + 1; i < to; i++) {
+                if (Long.compare(values[i], min) < 0) {
+                    min = values[i];
+                }
+            }
+            return min;
+        }, l -> l.stream().min(Long::compare).orElseThrow());
+    }
+
+    /**
+     * Returns whether any of long values satisfies predicate, stopping all threads at the first match.
+     */
+    public boolean any(int threads, long[] values, LongPredicate predicate) throws InterruptedException {
+        AtomicBoolean found = new AtomicBoolean();
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            for (int i = from; i < to && !found.get(); i++) {
+                if (predicate.test(values[i])) {
+                    found.set(true);
+                }
+            }
+            return found.get();
+        }, l -> found.get());
+    }
+
+    /**
+     * Returns whether all long values satisfy predicate, stopping all threads at the first mismatch.
+     */
+    public boolean all(int threads, long[] values, LongPredicate predicate) throws InterruptedException {
+        return !any(threads, values, predicate.negate());
+    }
+
+    /**
+     * Returns number of long values satisfying predicate.
+     */
+    public int count(int threads, long[] values, LongPredicate predicate) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(values[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }, l -> l.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Returns sum of long values.
+     */
+    public long sum(int threads, long[] values) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }, l -> l.stream().mapToLong(Long::longValue).sum());
+    }
+
+    /**
+     * Returns long values satisfying predicate in their original order.
+     */
+    public long[] filter(int threads, long[] values, LongPredicate predicate) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            long[] part = new long[to - from];
+            int length = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(values[i])) {
+                    part[length++] = values[i];
+                }
+            }
+            return new Part(part, length);
+        }, parts -> (long[]) Part.concat(parts, new long[Part.length(parts)]));
+    }
+
+    /**
+     * Maps long values. Results are written straight into the returned array.
+     */
+    public long[] map(int threads, long[] values, LongUnaryOperator function) throws InterruptedException {
+        long[] result = new long[values.length];
+        getParallelChunks(threads, values.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                result[i] = function.applyAsLong(values[i]);
+            }
+            return null;
+        }, l -> null);
+        return result;
+    }
+
+    // double[]
+
+    /**
+     * Returns maximum of double values.
+     *
+     * @throws java.util.NoSuchElementException if no values are given.
+     */
+    public double maximum(int threads, double[] values) throws InterruptedException {
+        requireNonEmpty(values.length);
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            double max = values[from];
+            for (int i = from + 1; i < to; i++) {
+                if (Double.compare(values[i], max) > 0) {
+                    max = values[i];
+                }
+            }
+            return max;
+        }, l -> l.stream().max(Double::compare).orElseThrow());
+    }
+
+    /**
+     * Returns minimum of double values.
+     *
+     * @throws java.util.NoSuchElementException if no values are given.
+     */
+    public double minimum(int threads, double[] values) throws InterruptedException {
+        requireNonEmpty(values.length);
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            double min = values[from];
+            for (int i = from + 1; i < to; i++) {
+                if (Double.compare(values[i], min) < 0) {
+                    min = values[i];
+                }
+            }
+            return min;
+        }, l -> l.stream().min(Double::compare).orElseThrow());
+    }
+
+    /**
+     * Returns whether any of double values satisfies predicate, stopping all threads at the first match.
+     */
+    public boolean any(int threads, double[] values, DoublePredicate predicate) throws InterruptedException {
+        AtomicBoolean found = new AtomicBoolean();
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            for (int i = from; i < to && !found.get(); i++) {
+                if (predicate.test(values[i])) {
+                    found.set(true);
+                }
+            }
+            return found.get();
+        }, l -> found.get());
+    }
+
+    /**
+     * Returns whether all double values satisfy predicate, stopping all threads at the first mismatch.
+     */
+    public boolean all(int threads, double[] values, DoublePredicate predicate) throws InterruptedException {
+        return !any(threads, values, predicate.negate());
+    }
+
+    /**
+     * Returns number of double values satisfying predicate.
+     */
+    public int count(int threads, double[] values, DoublePredicate predicate) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(values[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }, l -> l.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Returns sum of double values.
+     */
+    public double sum(int threads, double[] values) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }, l -> l.stream().mapToDouble(Double::doubleValue).sum());
+    }
+
+    /**
+     * Returns double values satisfying predicate in their original order.
+     */
+    public double[] filter(int threads, double[] values, DoublePredicate predicate) throws InterruptedException {
+        return getParallelChunks(threads, values.length, (from, to) -> {
+            double[] part = new double[to - from];
+            int length = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(values[i])) {
+                    part[length++] = values[i];
+                }
+            }
+            return new Part(part, length);
+        }, parts -> (double[]) Part.concat(parts, new double[Part.length(parts)]));
+    }
+
+    /**
+     * Maps double values. Results are written straight into the returned array.
+     */
+    public double[] map(int threads, double[] values, DoubleUnaryOperator function) throws InterruptedException {
+        double[] result = new double[values.length];
+        getParallelChunks(threads, values.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                result[i] = function.applyAsDouble(values[i]);
+            }
+            return null;
+        }, l -> null);
+        return result;
+    }
+
+    private static void requireNonEmpty(int length) {
+        if (length == 0) {
+            throw new NoSuchElementException("No values are given");
+        }
+    }
+}
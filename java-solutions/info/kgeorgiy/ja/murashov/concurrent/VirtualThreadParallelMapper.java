@@ -0,0 +1,164 @@
+package info.kgeorgiy.ja.murashov.concurrent;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * {@link ParallelMapper} running every element on its own virtual thread, for blocking mapping functions.
+ * The number of elements mapped at once over all calls is bounded by a {@link Semaphore}.
+ * On runtimes without virtual threads (before Java 21) daemon platform threads are used instead.
+ *
+ * @author Ivan Murashov
+ */
+public class VirtualThreadParallelMapper implements ParallelMapper {
+    private static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+    // every element in flight holds an OS thread without virtual threads
+    private static final int DEFAULT_MAX_IN_FLIGHT_PLATFORM = 256;
+    private static final ThreadFactory VIRTUAL_FACTORY = virtualThreadFactory();
+
+    private final Semaphore permits;
+    private final ThreadFactory factory;
+    private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+    private final Set<Call<?>> activeCalls = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Creates a mapper with at most {@value DEFAULT_MAX_IN_FLIGHT} elements mapped at once on virtual threads,
+     * or {@value DEFAULT_MAX_IN_FLIGHT_PLATFORM} on platform ones.
+     */
+    public VirtualThreadParallelMapper() {
+        this(isVirtual() ? DEFAULT_MAX_IN_FLIGHT : DEFAULT_MAX_IN_FLIGHT_PLATFORM);
+    }
+
+    /**
+     * @param maxInFlight maximal number of elements mapped at once.
+     */
+    public VirtualThreadParallelMapper(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Number of elements in flight has to be positive instead of " + maxInFlight);
+        }
+        this.permits = new Semaphore(maxInFlight);
+        this.factory = VIRTUAL_FACTORY != null ? VIRTUAL_FACTORY : runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return whether elements run on virtual threads rather than platform ones.
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL_FACTORY != null;
+    }
+
+    /**
+     * {@code Thread.ofVirtual().factory()} looked up reflectively, as the sources target Java 17.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) builder.getClass().getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps function {@code f} over specified {@code args}, every element on its own thread.
+     *
+     * @throws InterruptedException if calling thread was interrupted, elements not started yet are skipped
+     * @throws IllegalStateException if the mapper is or gets closed before the call completes
+     */
+    @Override
+    public <T, R> List<R> map(Function<? super T, ? extends R> function, List<? extends T> list) throws InterruptedException {
+        Call<R> call = new Call<>(list.size());
+        activeCalls.add(call);
+        try {
+            for (int i = 0; i < list.size(); i++) {
+                if (closed) {
+                    throw new IllegalStateException("Mapper is closed");
+                }
+                permits.acquire();
+                final int index = i;
+                start(() -> {
+                    if (call.error.get() == null) {
+                        try {
+                            call.results[index] = function.apply(list.get(index));
+                        } catch (RuntimeException | Error e) {
+                            call.error.compareAndSet(null, e);
+                        }
+                    }
+                    call.done.countDown();
+                });
+            }
+            return call.waiting();
+        } catch (InterruptedException e) {
+            call.error.compareAndSet(null, e);
+            throw e;
+        } finally {
+            activeCalls.remove(call);
+        }
+    }
+
+    private void start(Runnable task) {
+        Thread thread = factory.newThread(() -> {
+            try {
+                task.run();
+            } finally {
+                running.remove(Thread.currentThread());
+                permits.release();
+            }
+        });
+        running.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Interrupts running mappings. Unfinished calls fail with {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (final Call<?> call : activeCalls) {
+            call.error.compareAndSet(null, new IllegalStateException("Mapper is closed"));
+            while (call.done.getCount() > 0) {
+                call.done.countDown();
+            }
+        }
+        running.forEach(Thread::interrupt);
+    }
+
+    private static class Call<R> {
+        final Object[] results;
+        final CountDownLatch done;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Call(int size) {
+            this.results = new Object[size];
+            this.done = new CountDownLatch(size);
+        }
+
+        List<R> waiting() throws InterruptedException {
+            done.await();
+            Throwable e = error.get();
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            @SuppressWarnings("unchecked")
+            List<R> list = (List<R>) Arrays.asList(results);
+            return list;
+        }
+    }
+}
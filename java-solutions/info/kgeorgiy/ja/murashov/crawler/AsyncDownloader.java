@@ -0,0 +1,61 @@
+package info.kgeorgiy.ja.murashov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+
+/**
+ * Downloader completing downloads asynchronously, so that waiting for a page holds no thread.
+ *
+ * @author Ivan Murashov
+ */
+@FunctionalInterface
+public interface AsyncDownloader {
+    /**
+     * Starts downloading {@code url}.
+     *
+     * @return document of {@code url}, completed exceptionally with an {@link IOException} if the download fails.
+     */
+    CompletableFuture<Document> download(String url);
+
+    /**
+     * Starts downloading {@code url}, passing {@link System#nanoTime()} of the actual start to {@code started},
+     * which may come after waiting in a queue. By default the download is taken to start at once.
+     */
+    default CompletableFuture<Document> download(String url, LongConsumer started) {
+        started.accept(System.nanoTime());
+        return download(url);
+    }
+
+    /**
+     * Adapter running downloads of a blocking {@code downloader} on {@code executor}.
+     * A download is taken to start when {@code executor} runs it.
+     */
+    static AsyncDownloader of(Downloader downloader, Executor executor) {
+        return new AsyncDownloader() {
+            @Override
+            public CompletableFuture<Document> download(String url) {
+                return download(url, time -> {
+                });
+            }
+
+            @Override
+            public CompletableFuture<Document> download(String url, LongConsumer started) {
+                CompletableFuture<Document> result = new CompletableFuture<>();
+                executor.execute(() -> {
+                    started.accept(System.nanoTime());
+                    try {
+                        result.complete(downloader.download(url));
+                    } catch (IOException | RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+                return result;
+            }
+        };
+    }
+}
@@ -0,0 +1,141 @@
+package info.kgeorgiy.ja.murashov.crawler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Approximate {@link VisitedSet} on a Bloom filter of fixed size, chosen from the expected number
+ * of keys and the false positive rate. A url reached with {@code n} levels left is kept as {@code n} keys
+ * {@code (url, 1), ..., (url, n)}, so a url found again by a shorter path is still crawled deeper.
+ * A false positive skips a new url or a deeper crawl of a seen one.
+ * Bits are either in direct memory or in a memory mapped file.
+ *
+ * @author Ivan Murashov
+ */
+public class BloomVisitedSet implements VisitedSet {
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final Path file;
+
+    /**
+     * Creates a filter in direct memory.
+     */
+    public BloomVisitedSet(long expectedKeys, double falsePositiveRate) {
+        this(expectedKeys, falsePositiveRate, null);
+    }
+
+    /**
+     * @param expectedKeys      number of keys the false positive rate is given for,
+     *                          the number of urls times the typical number of levels left.
+     * @param falsePositiveRate probability to take a new url for a visited one, in {@code (0, 1)}.
+     * @param spillDirectory    directory for the memory mapped filter, {@code null} to keep it in direct memory.
+     */
+    public BloomVisitedSet(long expectedKeys, double falsePositiveRate, Path spillDirectory) {
+        if (expectedKeys <= 0) {
+            throw new IllegalArgumentException("Expected number of keys has to be positive instead of " + expectedKeys);
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate has to be in (0, 1) instead of " + falsePositiveRate);
+        }
+        double ln2 = Math.log(2);
+        long words = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2) / Long.SIZE);
+        if (words * Long.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter for " + expectedKeys + " keys does not fit into 2GiB");
+        }
+        this.bitCount = words * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedKeys * ln2));
+        int bytes = (int) (words * Long.BYTES);
+        if (spillDirectory == null) {
+            this.file = null;
+            this.bits = ByteBuffer.allocateDirect(bytes);
+        } else {
+            try {
+                this.file = Files.createTempFile(spillDirectory, "bloom", ".bin");
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    this.bits = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to map Bloom filter into " + spillDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * @return {@code levels} if {@code url} may have been reached with as many levels,
+     * otherwise the largest number of levels it may have been reached with or {@code 0}.
+     */
+    @Override
+    public int raise(String url, int levels) {
+        long fingerprint = VisitedSet.fingerprint(url);
+        if (!add(fingerprint, levels)) {
+            return levels;
+        }
+        // keys with fewer levels are added along with every key
+        int previous = levels - 1;
+        while (previous > 0 && add(fingerprint, previous)) {
+            previous--;
+        }
+        return previous;
+    }
+
+    /**
+     * Adds key {@code (url, levels)}.
+     *
+     * @return whether the key surely was not in the filter.
+     */
+    private boolean add(long fingerprint, int levels) {
+        long h1 = VisitedSet.mix(fingerprint + levels * 0x9e3779b97f4a7c15L);
+        long h2 = VisitedSet.mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        boolean added = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            added |= set(bit);
+        }
+        return added;
+    }
+
+    /**
+     * @return whether the bit was clear.
+     */
+    private boolean set(long bit) {
+        int offset = (int) (bit >>> 6) * Long.BYTES;
+        long mask = 1L << bit;
+        long word = (long) WORDS.getVolatile(bits, offset);
+        while ((word & mask) == 0) {
+            long witness = (long) WORDS.compareAndExchange(bits, offset, word, word | mask);
+            if (witness == word) {
+                return true;
+            }
+            word = witness;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isBounded() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Unable to delete Bloom filter file " + file + ": " + e.getMessage());
+        }
+    }
+}
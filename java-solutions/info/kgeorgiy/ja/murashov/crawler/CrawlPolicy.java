@@ -0,0 +1,79 @@
+package info.kgeorgiy.ja.murashov.crawler;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per-host download rates and retries of {@link WebCrawler}.
+ * Every host gets a token bucket refilled at {@code initialRate} downloads per second. The rate grows
+ * by {@code rateIncrease} after every download answered in time and is halved after a failure or
+ * a download taking more than {@value #SLOW_FACTOR} times the average, staying within {@code [minRate, maxRate]}.
+ * Transient failures are retried up to {@code maxRetries} times after exponentially growing delays.
+ *
+ * @author Ivan Murashov
+ */
+public class CrawlPolicy {
+    private static final double SLOW_FACTOR = 2;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    final double initialRate;
+    final double minRate;
+    final double maxRate;
+    final double rateIncrease;
+    final int maxRetries;
+    final long initialBackoffMillis;
+
+    /**
+     * @param initialRate          downloads per second from a host before anything is known about it.
+     * @param minRate              least downloads per second from a host.
+     * @param maxRate              most downloads per second from a host.
+     * @param rateIncrease         downloads per second added to the rate of a host after a fast download.
+     * @param maxRetries           number of retries of a transient failure.
+     * @param initialBackoffMillis delay before the first retry, doubled for every next one.
+     */
+    public CrawlPolicy(double initialRate, double minRate, double maxRate, double rateIncrease,
+                       int maxRetries, long initialBackoffMillis) {
+        if (!(0 < minRate && minRate <= initialRate && initialRate <= maxRate)) {
+            throw new IllegalArgumentException("Rates have to satisfy 0 < minRate <= initialRate <= maxRate");
+        }
+        if (rateIncrease < 0 || maxRetries < 0 || initialBackoffMillis < 0) {
+            throw new IllegalArgumentException("Rate increase, retries and backoff have to be non-negative");
+        }
+        this.initialRate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.rateIncrease = rateIncrease;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * 10 downloads per second to start with, between 0.5 and 1000, 3 retries starting after half a second.
+     */
+    public static CrawlPolicy defaults() {
+        return new CrawlPolicy(10, 0.5, 1000, 1, 3, 500);
+    }
+
+    /**
+     * Whether a download failing with {@code e} may succeed later: timeouts and refused connections.
+     */
+    public boolean isTransient(IOException e) {
+        return e instanceof SocketTimeoutException || e instanceof ConnectException || e instanceof NoRouteToHostException;
+    }
+
+    /**
+     * Delay before retry {@code attempt} (from {@code 0}): {@code initialBackoffMillis * 2^attempt}
+     * with random jitter down to half of it, so that retries of one host spread out.
+     */
+    long backoffMillis(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    boolean isSlow(long latency, double averageLatency) {
+        return latency > SLOW_FACTOR * averageLatency;
+    }
+}
@@ -0,0 +1,187 @@
+package info.kgeorgiy.ja.murashov.crawler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exact up to fingerprint collisions {@link VisitedSet} keeping 64-bit fingerprints of urls
+ * in open addressing tables of primitives, 12 bytes per slot. Tables are kept from a quarter to a half full,
+ * so a url takes 24 to 48 bytes. With {@value #SEGMENTS} segments under separate locks,
+ * concurrent crawlers rarely wait for each other.
+ * Tables are either on heap or, to keep the heap small, in memory mapped files.
+ * The number of urls may be bounded, so that the set fails instead of outgrowing its memory.
+ *
+ * @author Ivan Murashov
+ */
+public class FingerprintVisitedSet implements VisitedSet {
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 256;
+    // tables are at most half full, so probes stay short
+    private static final int MAX_LOAD_PERCENT = 50;
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Path spillDirectory;
+    private final long maxUrls;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Creates an unbounded set with tables on heap.
+     */
+    public FingerprintVisitedSet() {
+        this(null);
+    }
+
+    /**
+     * Creates an unbounded set.
+     *
+     * @param spillDirectory directory for memory mapped tables, {@code null} for tables on heap.
+     */
+    public FingerprintVisitedSet(Path spillDirectory) {
+        this(Long.MAX_VALUE, spillDirectory);
+    }
+
+    /**
+     * @param maxUrls        number of urls after which {@link #raise} throws {@link IllegalStateException},
+     *                       so that tables take about {@code 48 * maxUrls} bytes at most.
+     * @param spillDirectory directory for memory mapped tables, {@code null} for tables on heap.
+     */
+    public FingerprintVisitedSet(long maxUrls, Path spillDirectory) {
+        if (maxUrls <= 0) {
+            throw new IllegalArgumentException("Maximal number of urls has to be positive instead of " + maxUrls);
+        }
+        this.maxUrls = maxUrls;
+        this.spillDirectory = spillDirectory;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if {@code url} is new and the set already holds the maximal number of urls.
+     */
+    @Override
+    public int raise(String url, int levels) {
+        long fingerprint = VisitedSet.fingerprint(url);
+        return segments[(int) (fingerprint >>> 58)].raise(fingerprint, levels);
+    }
+
+    @Override
+    public boolean isBounded() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (final Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private class Segment {
+        // fingerprints of capacity slots followed by their levels, 0 marks empty slots
+        private ByteBuffer table;
+        private Path file;
+        private int capacity;
+        private int used;
+
+        Segment() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        synchronized int raise(long fingerprint, int levels) {
+            int slot = find(table, capacity, fingerprint);
+            if (table.getLong(slot * Long.BYTES) != 0) {
+                int previous = table.getInt(levelsOffset(slot));
+                if (previous < levels) {
+                    table.putInt(levelsOffset(slot), levels);
+                }
+                return previous;
+            }
+            if (size.incrementAndGet() > maxUrls) {
+                size.decrementAndGet();
+                throw new IllegalStateException("Visited set is full: " + maxUrls + " urls");
+            }
+            table.putLong(slot * Long.BYTES, fingerprint);
+            table.putInt(levelsOffset(slot), levels);
+            if (++used * 100L > (long) capacity * MAX_LOAD_PERCENT) {
+                grow();
+            }
+            return 0;
+        }
+
+        private int levelsOffset(int slot) {
+            return capacity * Long.BYTES + slot * Integer.BYTES;
+        }
+
+        private void grow() {
+            if (capacity >= MAX_CAPACITY) {
+                throw new IllegalStateException("Visited set is full");
+            }
+            ByteBuffer oldTable = table;
+            Path oldFile = file;
+            int oldCapacity = capacity;
+            allocate(oldCapacity * 2);
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                long fingerprint = oldTable.getLong(slot * Long.BYTES);
+                if (fingerprint != 0) {
+                    int newSlot = find(table, capacity, fingerprint);
+                    table.putLong(newSlot * Long.BYTES, fingerprint);
+                    table.putInt(levelsOffset(newSlot), oldTable.getInt(oldCapacity * Long.BYTES + slot * Integer.BYTES));
+                }
+            }
+            delete(oldFile);
+        }
+
+        private void allocate(int capacity) {
+            this.capacity = capacity;
+            int bytes = capacity * (Long.BYTES + Integer.BYTES);
+            if (spillDirectory == null) {
+                table = ByteBuffer.allocate(bytes);
+                return;
+            }
+            try {
+                file = Files.createTempFile(spillDirectory, "visited", ".bin");
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    table = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to map visited set into " + spillDirectory, e);
+            }
+        }
+
+        synchronized void close() {
+            delete(file);
+            file = null;
+        }
+    }
+
+    /**
+     * Linear probing: slot of {@code fingerprint} or of the empty slot where it belongs.
+     */
+    private static int find(ByteBuffer table, int capacity, long fingerprint) {
+        int slot = (int) fingerprint & (capacity - 1);
+        long current;
+        while ((current = table.getLong(slot * Long.BYTES)) != 0 && current != fingerprint) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return slot;
+    }
+
+    private static void delete(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Unable to delete visited set file " + file + ": " + e.getMessage());
+        }
+    }
+}
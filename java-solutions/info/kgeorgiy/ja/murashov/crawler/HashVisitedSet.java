@@ -0,0 +1,25 @@
+package info.kgeorgiy.ja.murashov.crawler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Exact {@link VisitedSet} keeping urls as they are.
+ *
+ * @author Ivan Murashov
+ */
+public class HashVisitedSet implements VisitedSet {
+    private final ConcurrentMap<String, Integer> levels = new ConcurrentHashMap<>();
+
+    @Override
+    public int raise(String url, int levels) {
+        Integer previous = this.levels.get(url);
+        while (previous == null || previous < levels) {
+            if (previous == null ? this.levels.putIfAbsent(url, levels) == null : this.levels.replace(url, previous, levels)) {
+                return previous == null ? 0 : previous;
+            }
+            previous = this.levels.get(url);
+        }
+        return previous;
+    }
+}
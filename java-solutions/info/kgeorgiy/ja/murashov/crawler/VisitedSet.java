@@ -0,0 +1,50 @@
+package info.kgeorgiy.ja.murashov.crawler;
+
+/**
+ * Urls seen by one crawl, each with the largest number of levels left it was reached with.
+ * Implementations are thread-safe.
+ *
+ * @author Ivan Murashov
+ */
+public interface VisitedSet extends AutoCloseable {
+    /**
+     * Records that {@code url} is reached with {@code levels} levels left.
+     *
+     * @return levels recorded for {@code url} before, {@code 0} if it is new.
+     * The recorded value becomes the maximum of the two.
+     */
+    int raise(String url, int levels);
+
+    /**
+     * Whether the set is meant to keep a crawl in bounded memory. Crawls then keep no state
+     * of finished pages and download a page again if a shorter path to it is found late.
+     */
+    default boolean isBounded() {
+        return false;
+    }
+
+    /**
+     * Frees the memory and files of the set.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * 64-bit hash of {@code url}: FNV-1a over its chars followed by a murmur finalizer, never {@code 0}.
+     */
+    static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash = (hash ^ url.charAt(i)) * 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return hash == 0 ? 1 : hash;
+    }
+
+    static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -2,135 +2,588 @@ package info.kgeorgiy.ja.murashov.crawler;
 
 import info.kgeorgiy.java.advanced.crawler.*;
 
+import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import java.io.IOException;
 
 public class WebCrawler implements Crawler {
 
-    Downloader downloader;
+    AsyncDownloader downloader;
     ExecutorService extractors;
     ExecutorService downloaders;
     final int perHost;
+    /**
+     * Default number of documents a crawl keeps for pages that were downloaded but not extracted yet.
+     */
+    public static final int DEFAULT_KEPT_DOCUMENTS = 1024;
+
+    private final int maxKeptDocuments;
+
+    // limits downloads of all hosts, null when the size of downloaders does
+    private final Limiter inFlight;
+    private final Supplier<? extends VisitedSet> visitedSets;
+    // null for fixed perHost concurrency without retries
+    private final CrawlPolicy policy;
+    private final ScheduledExecutorService timer;
+    // shared by all download calls, so that perHost holds for concurrent calls too; only hosts with pending downloads
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
 
     public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost) {
-        this.downloader = downloader;
-        this.downloaders = Executors.newFixedThreadPool(downloaders);
+        this(downloader, downloaders, extractors, perHost, HashVisitedSet::new);
+    }
+
+    /**
+     * @param visitedSets creates the set of seen urls for every {@link #download} call,
+     *                    e.g. a {@link FingerprintVisitedSet} or {@link BloomVisitedSet} for large crawls.
+     */
+    public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost,
+                      Supplier<? extends VisitedSet> visitedSets) {
+        this(downloader, downloaders, extractors, perHost, visitedSets, null);
+    }
+
+    /**
+     * @param policy adaptive per-host rates and retries of transient failures,
+     *               {@code null} for downloads limited by {@code perHost} only.
+     */
+    public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost,
+                      Supplier<? extends VisitedSet> visitedSets, CrawlPolicy policy) {
+        this(downloader, downloaders, extractors, perHost, visitedSets, policy, DEFAULT_KEPT_DOCUMENTS);
+    }
+
+    /**
+     * @param maxKeptDocuments maximal number of documents a crawl keeps for downloaded pages that may
+     *                         be extracted later. Links of the rest are extracted at once and kept instead.
+     */
+    public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost,
+                      Supplier<? extends VisitedSet> visitedSets, CrawlPolicy policy, int maxKeptDocuments) {
+        this(Executors.newFixedThreadPool(downloaders), downloader, null, extractors, perHost, 0, visitedSets, policy,
+                maxKeptDocuments);
+    }
+
+    private WebCrawler(ExecutorService downloaders, Downloader blockingDownloader, AsyncDownloader asyncDownloader,
+                       int extractors, int perHost, int maxInFlight, Supplier<? extends VisitedSet> visitedSets,
+                       CrawlPolicy policy, int maxKeptDocuments) {
+        if (maxKeptDocuments < 0) {
+            throw new IllegalArgumentException("Number of kept documents has to be non-negative instead of " + maxKeptDocuments);
+        }
+        this.downloaders = downloaders;
+        this.downloader = asyncDownloader != null ? asyncDownloader : AsyncDownloader.of(blockingDownloader, downloaders);
         this.extractors = Executors.newFixedThreadPool(extractors);
         this.perHost = perHost;
+        this.inFlight = maxInFlight > 0 ? new Limiter(maxInFlight) : null;
+        this.visitedSets = visitedSets;
+        this.policy = policy;
+        this.maxKeptDocuments = maxKeptDocuments;
+        this.timer = policy == null ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a crawler holding no thread while a page downloads.
+     *
+     * @param maxInFlight maximal number of downloads of all hosts at once.
+     */
+    public static WebCrawler withAsyncDownloader(AsyncDownloader downloader, int maxInFlight, int extractors,
+                                                 int perHost, Supplier<? extends VisitedSet> visitedSets,
+                                                 CrawlPolicy policy) {
+        return new WebCrawler(null, null, downloader, extractors, perHost, requirePositive(maxInFlight),
+                visitedSets, policy, DEFAULT_KEPT_DOCUMENTS);
+    }
+
+    /**
+     * Creates a crawler running every download of a blocking {@code downloader} on its own virtual thread.
+     * Before Java 21 daemon platform threads are used instead.
+     *
+     * @param maxInFlight maximal number of downloads of all hosts at once.
+     */
+    public static WebCrawler withVirtualThreads(Downloader downloader, int maxInFlight, int extractors,
+                                                int perHost, Supplier<? extends VisitedSet> visitedSets,
+                                                CrawlPolicy policy) {
+        return new WebCrawler(newThreadPerTaskExecutor(), downloader, null, extractors, perHost,
+                requirePositive(maxInFlight), visitedSets, policy, DEFAULT_KEPT_DOCUMENTS);
+    }
+
+    private static int requirePositive(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Number of downloads in flight has to be positive instead of " + maxInFlight);
+        }
+        return maxInFlight;
+    }
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} looked up reflectively, as the sources target Java 17.
+     */
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     @Override
     public Result download(String url, int depth) {
-        DownloadWorker downloadWorker = new DownloadWorker();
-        return downloadWorker.downloadBfs(url, depth);
+        try (VisitedSet visited = visitedSets.get()) {
+            DownloadWorker downloadWorker = new DownloadWorker(depth, visited);
+            return downloadWorker.download(url);
+        }
     }
 
     @Override
     public void close() {
-        downloaders.shutdown();
+        if (downloaders != null) {
+            downloaders.shutdown();
+        }
         extractors.shutdown();
+        if (timer != null) {
+            timer.shutdownNow();
+        }
     }
 
+    /**
+     * One crawl. Pages are downloaded and links are extracted as soon as they are found,
+     * without waiting for the rest of their level. Every page is tagged with the largest number
+     * of levels left over the paths found so far; if a shorter path shows up later, the links of the page
+     * are visited again with the larger number, so the result is the same as for a level by level crawl.
+     * For that a finished page that may still be reached by a shorter path keeps the list of its links,
+     * or its document if it was not extracted yet, up to {@code maxKeptDocuments} documents at once.
+     * With a {@link VisitedSet#isBounded() bounded} visited set finished pages are forgotten instead,
+     * and such a page is downloaded again.
+     */
     private class DownloadWorker {
 
-        private final Phaser phaser;
-        Set<String> urls;
-        Set<String> currentTime;
-        Set<String> nextTime;
-        Map<String, IOException> errors;
+        // scheduled downloads and extractions plus one for the calling thread
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final int depth;
+        private final VisitedSet visited;
+        private final boolean keepFinished;
+        private final AtomicInteger keptDocuments = new AtomicInteger();
+        // pages being crawled and, unless the visited set is bounded, finished ones
+        final Map<String, Page> pages;
+        final Set<String> urls;
+        final Map<String, IOException> errors;
 
-        public DownloadWorker() {
-            this.phaser = new Phaser(1);
+        public DownloadWorker(int depth, VisitedSet visited) {
+            this.depth = depth;
+            this.visited = visited;
+            this.keepFinished = !visited.isBounded();
+            this.pages = new ConcurrentHashMap<>();
             this.errors = new ConcurrentHashMap<>();
             this.urls = ConcurrentHashMap.newKeySet();
         }
 
-        public Result downloadBfs(String url, int depth) {
-            currentTime = ConcurrentHashMap.newKeySet();
-            nextTime = ConcurrentHashMap.newKeySet();
-            currentTime.add(url);
-            Map<String, HostManager> hosts = new ConcurrentHashMap<>();
-            for (int i = 0; i < depth; i++) {
-                for (final String uri : currentTime) {
-                    try {
-                        final String host = URLUtils.getHost(uri);
-                        if (!hosts.containsKey(host)) {
-                            hosts.put(host, new HostManager());
+        public Result download(String url) {
+            visit(url, depth);
+            arrive();
+            done.join();
+            return new Result(new ArrayList<>(urls), errors);
+        }
+
+        private void register() {
+            pending.incrementAndGet();
+        }
+
+        private void arrive() {
+            if (pending.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+        }
+
+        /**
+         * Schedules {@code url} with {@code levels} levels left, unless it already has as many.
+         */
+        private void visit(final String url, final int levels) {
+            try {
+                if (visited.raise(url, levels) >= levels) {
+                    return;
+                }
+            } catch (IllegalStateException e) {
+                // the visited set is full
+                errors.put(url, new IOException(e.getMessage(), e));
+                return;
+            }
+            while (true) {
+                final Page page = pages.computeIfAbsent(url, Page::new);
+                synchronized (page) {
+                    if (page.forgotten) {
+                        continue;
+                    }
+                    if (levels <= page.levels) {
+                        return;
+                    }
+                    page.levels = levels;
+                    if (!page.started) {
+                        page.started = true;
+                        addDownloader(page);
+                    } else if (page.document != null || page.links != null || page.linkError != null) {
+                        addExtractor(page, levels);
+                    }
+                    // otherwise the page is being downloaded and picks the new levels up when done, or it failed
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Keeps of a page what a shorter path found later needs. Called holding the page
+         * once its download or an extraction is done.
+         *
+         * @param links links just extracted from the page or {@code null}.
+         */
+        private void retain(final Page page, final List<String> links) {
+            if (links != null) {
+                page.links = links;
+            }
+            if (page.levels > 1 && page.levels > page.extracted) {
+                // a queued extraction takes what it needs and calls back
+                return;
+            }
+            if (!keepFinished) {
+                page.forgotten = true;
+                dropDocument(page);
+                page.links = null;
+                pages.remove(page.url, page);
+            } else if (page.levels >= depth - 1) {
+                // no other path can give more levels
+                dropDocument(page);
+                page.links = null;
+            } else if (page.links != null || page.linkError != null) {
+                dropDocument(page);
+            } else if (page.document != null && !page.documentKept) {
+                if (keptDocuments.incrementAndGet() <= maxKeptDocuments) {
+                    page.documentKept = true;
+                } else {
+                    keptDocuments.decrementAndGet();
+                    // only stores the links, which are smaller than the document
+                    addExtractor(page, 1);
+                }
+            }
+        }
+
+        private void dropDocument(final Page page) {
+            page.document = null;
+            if (page.documentKept) {
+                page.documentKept = false;
+                keptDocuments.decrementAndGet();
+            }
+        }
+
+        private void addDownloader(final Page page) {
+            try {
+                final Host host = acquireHost(URLUtils.getHost(page.url));
+                register();
+                submitDownload(host, page, 0);
+            } catch (MalformedURLException ignored) {
+                System.err.println("Your URL  " + page.url + " isn't valid");
+                retain(page, null);
+            }
+        }
+
+        private void submitDownload(final Host host, final Page page, final int attempt) {
+            final Supplier<CompletableFuture<?>> start = () -> startDownload(host, page, attempt);
+            host.submit(inFlight == null ? start : () -> inFlight.submit(start));
+        }
+
+        private CompletableFuture<?> startDownload(final Host host, final Page page, final int attempt) {
+            // set by the downloader before the download completes
+            final long[] started = new long[1];
+            CompletableFuture<Document> download;
+            try {
+                download = downloader.download(page.url, time -> started[0] = time);
+            } catch (RuntimeException e) {
+                download = CompletableFuture.failedFuture(e);
+            }
+            return download.handle((document, e) -> {
+                boolean retried = false;
+                try {
+                    if (e == null) {
+                        host.succeeded(System.nanoTime() - started[0]);
+                        downloaded(page, document);
+                    } else {
+                        host.failed();
+                        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        if (policy != null && attempt < policy.maxRetries
+                                && cause instanceof IOException && policy.isTransient((IOException) cause)) {
+                            // stays pending until the retry is done
+                            timer.schedule(() -> submitDownload(host, page, attempt + 1),
+                                    policy.backoffMillis(attempt), TimeUnit.MILLISECONDS);
+                            retried = true;
+                        } else {
+                            failed(page, cause);
                         }
-                        final boolean flag = depth != i + 1;
-                        phaser.register();
-                        hosts.get(host).manageDownload(
-                                () -> {
-                                    try {
-                                        Document document = downloader.download(uri);
-                                        urls.add(uri);
-                                        if (flag) {
-                                            addExtractor(uri, document);
-                                        }
-                                    } catch (IOException e) {
-                                        errors.put(uri, e);
-                                    } finally {
-                                        phaser.arriveAndDeregister();
-                                        hosts.get(host).manageNextStep();
-                                    }
-                                }
-                        );
-                    } catch (MalformedURLException ignored) {
-                        System.err.println("Your URL  " + url + " isn't valid");
                     }
+                } finally {
+                    if (!retried) {
+                        releaseHost(host);
+                        arrive();
+                    }
+                }
+                return null;
+            });
+        }
+
+        private void downloaded(final Page page, final Document document) {
+            urls.add(page.url);
+            final int levels;
+            synchronized (page) {
+                page.document = document;
+                levels = page.levels;
+                if (levels <= 1) {
+                    retain(page, null);
                 }
-                phaser.arriveAndAwaitAdvance();
-                currentTime = nextTime;
-                nextTime = ConcurrentHashMap.newKeySet();
             }
-            return new Result(new ArrayList<>(urls), errors);
+            if (levels > 1) {
+                addExtractor(page, levels);
+            }
         }
 
-        public void addExtractor(final String url, final Document document) {
-            phaser.register();
+        private void failed(final Page page, final Throwable e) {
+            // a forgotten page downloaded again keeps the result of its first download
+            if (!urls.contains(page.url)) {
+                errors.put(page.url, e instanceof IOException ? (IOException) e : new IOException(e));
+            }
+            synchronized (page) {
+                retain(page, null);
+            }
+        }
+
+        /**
+         * Visits links of a page with {@code levels - 1} levels left, for {@code levels == 1} only stores them.
+         */
+        public void addExtractor(final Page page, final int levels) {
+            register();
             extractors.submit(
                     () -> {
                         try {
-                            List<String> links = document.extractLinks();
-                            for (String link : links) {
-                                if (!urls.contains(link) && !errors.containsKey(link) && !currentTime.contains(link)) {
-                                    nextTime.add(link);
+                            final Document document;
+                            List<String> links;
+                            IOException error;
+                            synchronized (page) {
+                                if (levels <= page.extracted) {
+                                    return;
+                                }
+                                page.extracted = levels;
+                                document = page.document;
+                                links = page.links;
+                                error = page.linkError;
+                            }
+                            if (links == null && error == null) {
+                                try {
+                                    links = document.extractLinks();
+                                } catch (IOException e) {
+                                    error = e;
                                 }
                             }
-                        } catch (IOException e) {
-                            errors.put(url, e);
+                            synchronized (page) {
+                                if (error != null) {
+                                    page.linkError = error;
+                                }
+                                retain(page, links);
+                            }
+                            if (levels <= 1) {
+                                return;
+                            }
+                            if (error != null) {
+                                errors.put(page.url, error);
+                                return;
+                            }
+                            for (final String link : links) {
+                                visit(link, levels - 1);
+                            }
                         } finally {
-                            phaser.arriveAndDeregister();
+                            arrive();
                         }
                     }
             );
         }
+    }
+
+    /**
+     * Crawl state of one url, guarded by itself.
+     */
+    private static class Page {
+        final String url;
+        int levels;
+        int extracted;
+        boolean started;
+        boolean forgotten;
+        Document document;
+        boolean documentKept;
+        List<String> links;
+        IOException linkError;
+
+        Page(String url) {
+            this.url = url;
+        }
+    }
+
+    /**
+     * Returns the host of a download about to be submitted, creating it if the host has no pending downloads.
+     */
+    private Host acquireHost(final String name) {
+        return hosts.compute(name, (key, host) -> {
+            final Host result = host == null ? new Host(key) : host;
+            result.pending++;
+            return result;
+        });
+    }
+
+    /**
+     * Called once a download of {@code host} is finished. The last one removes the host,
+     * so a crawler keeps no state of idle hosts, and their rates start over.
+     */
+    private void releaseHost(final Host host) {
+        hosts.computeIfPresent(host.name, (key, current) -> --current.pending == 0 ? null : current);
+    }
+
+    /**
+     * Downloads of one host: at most {@code perHost} at once and, with a {@link CrawlPolicy},
+     * started at the adaptive rate of the host.
+     */
+    private class Host {
+        private final String name;
+        private final Limiter downloads = new Limiter(perHost);
+        private final Rate rate = policy == null ? null : new Rate();
+        // submitted and not finished downloads, guarded by the entry in hosts
+        private int pending;
+
+        Host(final String name) {
+            this.name = name;
+        }
 
-        private class HostManager {
-            private int workingOnHost;
-            final private Queue<Runnable> linksTasks;
+        public void submit(final Supplier<? extends CompletableFuture<?>> task) {
+            downloads.submit(rate == null ? task : () -> rate.acquire(task));
+        }
 
-            public HostManager() {
-                linksTasks = new ConcurrentLinkedDeque<>();
-                workingOnHost = 0;
+        public void succeeded(final long latency) {
+            if (rate != null) {
+                rate.succeeded(latency);
             }
+        }
 
-            public synchronized void manageDownload(final Runnable task) {
-                if (workingOnHost < perHost) {
-                    workingOnHost++;
-                    downloaders.submit(task);
-                } else {
-                    linksTasks.add(task);
-                }
+        public void failed() {
+            if (rate != null) {
+                rate.failed();
             }
+        }
+    }
+
+    /**
+     * Token bucket of a host holding at most a second worth of tokens. A task taking a token
+     * in advance waits for it on the timer, holding no thread.
+     */
+    private class Rate {
+        private double rate = policy.initialRate;
+        private double tokens = 1;
+        private long refilled = System.nanoTime();
+        private double averageLatency;
+
+        public CompletableFuture<?> acquire(final Supplier<? extends CompletableFuture<?>> task) {
+            final long delay = reserve();
+            if (delay == 0) {
+                return task.get();
+            }
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            timer.schedule(() -> task.get().whenComplete((r, e) -> done.complete(null)), delay, TimeUnit.NANOSECONDS);
+            return done;
+        }
+
+        /**
+         * Takes a token, possibly one not refilled yet.
+         *
+         * @return nanoseconds until the token is refilled.
+         */
+        private synchronized long reserve() {
+            final long now = System.nanoTime();
+            tokens = Math.min(Math.max(1, rate), tokens + (now - refilled) * rate / 1e9);
+            refilled = now;
+            tokens--;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+
+        public synchronized void succeeded(final long latency) {
+            final boolean slow = averageLatency > 0 && policy.isSlow(latency, averageLatency);
+            averageLatency = averageLatency == 0 ? latency : 0.8 * averageLatency + 0.2 * latency;
+            if (slow) {
+                slowDown();
+            } else {
+                rate = Math.min(policy.maxRate, rate + policy.rateIncrease);
+            }
+        }
 
-            public synchronized void manageNextStep() {
-                workingOnHost--;
-                if (!linksTasks.isEmpty()) {
-                    manageDownload(linksTasks.poll());
+        public synchronized void failed() {
+            slowDown();
+        }
+
+        private void slowDown() {
+            rate = Math.max(policy.minRate, rate / 2);
+        }
+    }
+
+    /**
+     * At most {@code permits} tasks running at once: a lock-free queue of waiting tasks and atomic permits.
+     * A task is started only together with a permit, so for hosts the downloaders queue holds just
+     * the hosts with spare capacity. The permit is returned when the future of the task completes.
+     */
+    private static class Limiter {
+        private final AtomicInteger permits;
+        private final Queue<Supplier<? extends CompletableFuture<?>>> tasks = new ConcurrentLinkedQueue<>();
+
+        Limiter(int permits) {
+            this.permits = new AtomicInteger(permits);
+        }
+
+        /**
+         * Starts {@code task} once there is a permit.
+         *
+         * @param task starts the work and returns its future, never throws.
+         * @return future completing after the one of {@code task}.
+         */
+        public CompletableFuture<?> submit(final Supplier<? extends CompletableFuture<?>> task) {
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            tasks.add(() -> task.get().whenComplete((r, e) -> done.complete(null)));
+            schedule();
+            return done;
+        }
+
+        private void schedule() {
+            // a finishing task returns its permit before looking at the queue and a new task is queued
+            // before looking at the permits, so one of them always sees the other
+            while (!tasks.isEmpty()) {
+                final int free = permits.get();
+                if (free == 0) {
+                    return;
+                }
+                if (!permits.compareAndSet(free, free - 1)) {
+                    continue;
+                }
+                final Supplier<? extends CompletableFuture<?>> task = tasks.poll();
+                if (task == null) {
+                    permits.incrementAndGet();
+                    continue;
+                }
+                final CompletableFuture<?> running = task.get();
+                if (running.isDone()) {
+                    // no recursion for tasks completing at once
+                    permits.incrementAndGet();
+                } else {
+                    running.whenComplete((r, e) -> {
+                        permits.incrementAndGet();
+                        schedule();
+                    });
                 }
             }
         }
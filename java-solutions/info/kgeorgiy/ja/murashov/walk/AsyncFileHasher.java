@@ -0,0 +1,134 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hashes files with {@link AsynchronousFileChannel} reads.
+ * Every file being hashed holds one buffer of a fixed pool, so at most {@code inFlight} reads are outstanding
+ * and memory stays bounded. Completed buffers are digested by a small pool of digest threads.
+ */
+public class AsyncFileHasher implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final HashAlgorithm algorithm;
+    private final WalkStats stats;
+    private final int inFlight;
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final ExecutorService digesters;
+
+    public AsyncFileHasher(HashAlgorithm algorithm, int inFlight, int digestThreads, WalkStats stats) {
+        this.algorithm = algorithm;
+        this.stats = stats;
+        this.inFlight = inFlight;
+        this.buffers = new ArrayBlockingQueue<>(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            buffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        this.digesters = Executors.newFixedThreadPool(digestThreads);
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Starts hashing a file, waiting for a free buffer if {@code inFlight} files are already being read.
+     * The result is the algorithm's zero hash if the file could not be read.
+     */
+    public CompletableFuture<String> hash(Path file) throws InterruptedIOException {
+        final ByteBuffer buffer;
+        try {
+            buffer = buffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a read buffer");
+        }
+        final AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+        } catch (IOException | SecurityException | UnsupportedOperationException e) {
+            buffers.add(buffer);
+            System.err.println("Unable to read a file: " + e.getMessage());
+            return CompletableFuture.completedFuture(algorithm.getZeroHash());
+        }
+        final Read read = new Read(channel, buffer);
+        read.next();
+        return read.result;
+    }
+
+    @Override
+    public void close() {
+        digesters.shutdownNow();
+    }
+
+    private class Read implements CompletionHandler<Integer, Void> {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final AsynchronousFileChannel channel;
+        final ByteBuffer buffer;
+        final MessageDigest digest = algorithm.newDigest();
+        final long start = System.nanoTime();
+        long position;
+
+        Read(AsynchronousFileChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+            buffer.clear();
+        }
+
+        void next() {
+            try {
+                channel.read(buffer, position, null, this);
+            } catch (RuntimeException e) {
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public void completed(Integer read, Void attachment) {
+            if (read < 0) {
+                stats.hashed(position, System.nanoTime() - start);
+                finish(FileHasher.toHex(digest.digest()));
+                return;
+            }
+            try {
+                digesters.execute(() -> {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                    position += read;
+                    next();
+                });
+            } catch (RejectedExecutionException e) {
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            System.err.println("Unable to read a file: " + exc.getMessage());
+            finish(algorithm.getZeroHash());
+        }
+
+        private void finish(String hash) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            buffers.add(buffer);
+            result.complete(hash);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Accumulates {@code <hash> <name>} lines in a reused char buffer
+ * and passes them to the underlying writer in chunks of the buffer size.
+ * Not thread-safe.
+ */
+public class BatchedLineWriter implements Flushable {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Writer writer;
+    private final char[] buffer;
+    private int size;
+
+    public BatchedLineWriter(Writer writer) {
+        this(writer, DEFAULT_CAPACITY);
+    }
+
+    public BatchedLineWriter(Writer writer, int capacity) {
+        this.writer = writer;
+        this.buffer = new char[capacity];
+    }
+
+    public void writeLine(String hash, String name) throws IOException {
+        append(hash);
+        append(" ");
+        append(name);
+        append(LINE_SEPARATOR);
+    }
+
+    private void append(String s) throws IOException {
+        int offset = 0;
+        while (offset < s.length()) {
+            if (size == buffer.length) {
+                flushBuffer();
+            }
+            final int length = Math.min(s.length() - offset, buffer.length - size);
+            s.getChars(offset, offset + length, buffer, size);
+            size += length;
+            offset += length;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        writer.write(buffer, 0, size);
+        size = 0;
+    }
+
+    /**
+     * Writes buffered lines and flushes the underlying writer.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        writer.flush();
+    }
+}
@@ -0,0 +1,192 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Finds files with equal contents under the directories listed in the input file.
+ * Files are grouped by size, then by hash of their first and last blocks,
+ * and only the remaining candidates are hashed completely.
+ * Each group of duplicates is written as {@code <hash> <file>} lines followed by an empty line.
+ */
+public class DuplicateWalk implements AutoCloseable {
+    private final FileHasher hasher;
+    private final ExecutorService executor;
+
+    public DuplicateWalk(FileHasher hasher, int threads) {
+        this.hasher = hasher;
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+    /**
+     * Returns groups of files with equal contents.
+     * Files of a group keep their order in {@code files}, the order of groups is unspecified.
+     */
+    public List<Group> findDuplicates(List<Path> files) throws IOException {
+        Map<Long, List<Path>> bySize = new LinkedHashMap<>();
+        for (final Path file : files) {
+            try {
+                bySize.computeIfAbsent(Files.size(file), size -> new ArrayList<>()).add(file);
+            } catch (IOException | SecurityException e) {
+                System.err.println("Unable to read size of " + file + ": " + e.getMessage());
+            }
+        }
+        return findDuplicates(bySize);
+    }
+
+    /**
+     * Same as {@link #findDuplicates(List)} for files already grouped by size,
+     * e.g. from attributes the walk has read anyway.
+     */
+    public List<Group> findDuplicates(Map<Long, List<Path>> bySize) throws IOException {
+        List<Group> duplicates = new ArrayList<>();
+        for (final Map.Entry<Long, List<Path>> sized : bySize.entrySet()) {
+            if (sized.getValue().size() < 2) {
+                continue;
+            }
+            for (final Group candidates : group(sized.getValue(), hasher::hashEdges)) {
+                if (sized.getKey() <= 2L * FileHasher.EDGE_SIZE) {
+                    // edges cover the whole file
+                    duplicates.add(candidates);
+                } else {
+                    duplicates.addAll(group(candidates.files, hasher::hash));
+                }
+            }
+        }
+        return duplicates;
+    }
+
+    private List<Group> group(List<Path> files, Function<Path, String> hash) throws IOException {
+        List<String> hashes = hashAll(files, hash);
+        Map<String, List<Path>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (!hashes.get(i).equals(hasher.getDefaultHash())) {
+                groups.computeIfAbsent(hashes.get(i), h -> new ArrayList<>()).add(files.get(i));
+            }
+        }
+        List<Group> result = new ArrayList<>();
+        for (final Map.Entry<String, List<Path>> group : groups.entrySet()) {
+            if (group.getValue().size() > 1) {
+                result.add(new Group(group.getKey(), group.getValue()));
+            }
+        }
+        return result;
+    }
+
+    private List<String> hashAll(List<Path> files, Function<Path, String> hash) throws IOException {
+        List<String> hashes = new ArrayList<>(files.size());
+        if (executor == null) {
+            for (final Path file : files) {
+                hashes.add(hash.apply(file));
+            }
+            return hashes;
+        }
+        List<Future<String>> futures = new ArrayList<>(files.size());
+        for (final Path file : files) {
+            futures.add(executor.submit(() -> hash.apply(file)));
+        }
+        try {
+            for (final Future<String> future : futures) {
+                hashes.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing duplicate candidates");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to hash duplicate candidates", e.getCause());
+        }
+        return hashes;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) {
+        WalkArguments arguments = WalkArguments.parse(args);
+        if (arguments == null) {
+            return;
+        }
+        WalkStats stats = new WalkStats();
+        stats.register("DuplicateWalk");
+        try (
+                BufferedReader reader = new BufferedReader(new FileReader(arguments.getInputFile(), StandardCharsets.UTF_8));
+                BufferedWriter writer = new BufferedWriter(new FileWriter(arguments.getOutputFile(), StandardCharsets.UTF_8));
+                DuplicateWalk duplicateWalk = new DuplicateWalk(arguments.createHasher(stats), arguments.getThreads());
+                ParallelFileTreeWalker walker = arguments.createWalker(stats)
+        ) {
+            Map<Long, List<Path>> bySize = new LinkedHashMap<>();
+            FileVisitor<Path> collector = new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<>()).add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    System.err.println("Unable to access " + file + " " + exc.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            };
+            String FileName;
+            while ((FileName = reader.readLine()) != null) {
+                try {
+                    Path FilePath = Paths.get(FileName);
+                    if (walker == null) {
+                        Files.walkFileTree(FilePath, collector);
+                    } else {
+                        walker.walkFileTree(FilePath, collector);
+                    }
+                } catch (InvalidPathException e) {
+                    System.err.println("There is not such file to hash: " + e.getMessage());
+                } catch (SecurityException e) {
+                    System.err.println("Unable to access " + FileName + " " + e.getMessage());
+                }
+            }
+            for (final Group group : duplicateWalk.findDuplicates(bySize)) {
+                for (final Path file : group.files) {
+                    writer.write(group.hash + " " + file);
+                    writer.newLine();
+                }
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("Error when operating input or output file: " + e.getMessage());
+        } catch (SecurityException e) {
+            System.err.println("Unable to access input or output file: " + e.getMessage());
+        }
+        stats.unregister();
+    }
+
+    public static class Group {
+        private final String hash;
+        private final List<Path> files;
+
+        Group(String hash, List<Path> files) {
+            this.hash = hash;
+            this.files = files;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public List<Path> getFiles() {
+            return files;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * File hasher. Files smaller than {@code mapThreshold} bytes are read through a reused heap buffer,
+ * larger ones are fed to the digest from memory-mapped regions.
+ * Instances are thread-safe: buffers and digests are kept per thread.
+ */
+public class FileHasher {
+    public static final long DEFAULT_MAP_THRESHOLD = 64L << 20;
+    /**
+     * Number of bytes taken from each end of a file by {@link #hashEdges(Path)}.
+     */
+    public static final int EDGE_SIZE = 4096;
+
+    private static final int BUFFER_SIZE = 16384;
+    private static final long MAP_REGION_SIZE = 64L << 20;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final HashAlgorithm algorithm;
+    private final long mapThreshold;
+    private final WalkStats stats;
+    private final ThreadLocal<ByteBuffer> buffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+    private final ThreadLocal<MessageDigest> digest;
+
+    public FileHasher() {
+        this(HashAlgorithm.SHA_1, DEFAULT_MAP_THRESHOLD);
+    }
+
+    public FileHasher(HashAlgorithm algorithm, long mapThreshold) {
+        this(algorithm, mapThreshold, new WalkStats());
+    }
+
+    public FileHasher(HashAlgorithm algorithm, long mapThreshold, WalkStats stats) {
+        if (mapThreshold < 1) {
+            // files reported as empty, like procfs ones, have to be read rather than mapped
+            throw new IllegalArgumentException("Memory mapping threshold has to be positive instead of " + mapThreshold);
+        }
+        this.algorithm = algorithm;
+        this.mapThreshold = mapThreshold;
+        this.stats = stats;
+        this.digest = ThreadLocal.withInitial(algorithm::newDigest);
+    }
+
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the hash written for files that could not be hashed.
+     */
+    public String getDefaultHash() {
+        return algorithm.getZeroHash();
+    }
+
+    public String hash(Path file) {
+        final long start = System.nanoTime();
+        final MessageDigest digest = this.digest.get();
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size >= mapThreshold) {
+                updateMapped(digest, channel, size);
+            } else {
+                updateBuffered(digest, channel);
+            }
+            stats.hashed(size, System.nanoTime() - start);
+        } catch (IOException | SecurityException | UnsupportedOperationException e) {
+            System.err.println("Unable to read a file: " + e.getMessage());
+            return getDefaultHash();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes the first and the last {@link #EDGE_SIZE} bytes of a file.
+     * For files not larger than {@code 2 * EDGE_SIZE} bytes the result equals {@link #hash(Path)}.
+     */
+    public String hashEdges(Path file) {
+        final long start = System.nanoTime();
+        final MessageDigest digest = this.digest.get();
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size <= 2L * EDGE_SIZE) {
+                updateBuffered(digest, channel);
+            } else {
+                updateRange(digest, channel, 0);
+                updateRange(digest, channel, size - EDGE_SIZE);
+            }
+            stats.hashed(Math.min(size, 2L * EDGE_SIZE), System.nanoTime() - start);
+        } catch (IOException | SecurityException | UnsupportedOperationException e) {
+            System.err.println("Unable to read a file: " + e.getMessage());
+            return getDefaultHash();
+        }
+        return toHex(digest.digest());
+    }
+
+    private void updateRange(MessageDigest digest, FileChannel channel, long position) throws IOException {
+        final ByteBuffer buffer = this.buffer.get();
+        buffer.clear().limit(EDGE_SIZE);
+        int read = 0;
+        while (buffer.hasRemaining() && read >= 0) {
+            read = channel.read(buffer, position + buffer.position());
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+    }
+
+    private void updateBuffered(MessageDigest digest, FileChannel channel) throws IOException {
+        final ByteBuffer buffer = this.buffer.get();
+        buffer.clear();
+        while (channel.read(buffer) >= 0) {
+            digest.update(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    private static void updateMapped(MessageDigest digest, FileChannel channel, long size) throws IOException {
+        for (long position = 0; position < size; position += MAP_REGION_SIZE) {
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_REGION_SIZE, size - position)));
+        }
+    }
+
+    static String toHex(byte[] hash) {
+        final char[] chars = new char[hash.length << 1];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i << 1] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            chars[(i << 1) + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
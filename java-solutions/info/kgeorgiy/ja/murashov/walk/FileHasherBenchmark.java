@@ -0,0 +1,80 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares buffered and memory-mapped hashing over file sizes from {@value #MIN_SIZE} bytes
+ * up to the given size, growing four times a step, to show where {@code --mmap-threshold} should sit.
+ * Usage: {@code FileHasherBenchmark <directory> [max size MiB] [algorithm]}.
+ * Missing files {@code <directory>/<size>.bin} are created with random content.
+ * Each path is warmed up first, then hashes a file until about {@value #BYTES_PER_MEASURE} bytes are read,
+ * at least {@value #MIN_ROUNDS} times, and the mean time per hash is printed.
+ */
+public class FileHasherBenchmark {
+    private static final long MIN_SIZE = 4096;
+    private static final int DEFAULT_MAX_SIZE_MIB = 256;
+    private static final long BYTES_PER_MEASURE = 1L << 30;
+    private static final int MIN_ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        if (args == null || args.length < 1 || args.length > 3) {
+            System.err.println("Usage: FileHasherBenchmark <directory> [max size MiB] [algorithm]");
+            return;
+        }
+        final Path directory = Path.of(args[0]);
+        final long maxSize = (args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_MAX_SIZE_MIB) << 20;
+        final HashAlgorithm algorithm = args.length > 2 ? HashAlgorithm.forName(args[2]) : HashAlgorithm.SHA_1;
+        if (algorithm == null) {
+            System.err.println("Unsupported hash algorithm " + args[2]);
+            return;
+        }
+        Files.createDirectories(directory);
+
+        final FileHasher buffered = new FileHasher(algorithm, Long.MAX_VALUE);
+        final FileHasher mapped = new FileHasher(algorithm, 1);
+        System.out.printf("%12s %14s %14s %10s%n", "size", "buffered MiB/s", "mapped MiB/s", "mapped/buf");
+        for (long size = MIN_SIZE; size <= maxSize; size <<= 2) {
+            final Path file = directory.resolve(size + ".bin");
+            if (Files.notExists(file) || Files.size(file) != size) {
+                create(file, size);
+            }
+            if (!buffered.hash(file).equals(mapped.hash(file))) {
+                System.err.println("Buffered and mapped hashes of " + file + " differ");
+                return;
+            }
+            final int rounds = (int) Math.max(MIN_ROUNDS, BYTES_PER_MEASURE / size);
+            final double bufferedSpeed = speed(size, measure(buffered, file, rounds));
+            final double mappedSpeed = speed(size, measure(mapped, file, rounds));
+            System.out.printf("%12d %14.1f %14.1f %10.2f%n", size, bufferedSpeed, mappedSpeed, mappedSpeed / bufferedSpeed);
+        }
+    }
+
+    private static void create(Path file, long size) throws IOException {
+        final byte[] chunk = new byte[(int) Math.min(size, 1 << 20)];
+        try (var out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                ThreadLocalRandom.current().nextBytes(chunk);
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+    }
+
+    private static double measure(FileHasher hasher, Path file, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            hasher.hash(file);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            hasher.hash(file);
+        }
+        return (System.nanoTime() - start) / 1e9 / rounds;
+    }
+
+    private static double speed(long size, double seconds) {
+        return size / (double) (1 << 20) / seconds;
+    }
+}
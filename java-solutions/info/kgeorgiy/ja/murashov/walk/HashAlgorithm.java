@@ -0,0 +1,71 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Digest algorithms supported by the walk tools.
+ */
+public enum HashAlgorithm {
+    SHA_256("sha-256", 32, () -> getInstance("SHA-256")),
+    SHA_1("sha-1", 20, () -> getInstance("SHA-1")),
+    /**
+     * Non-cryptographic 64-bit xxHash, for deduplication scans.
+     */
+    XXH64("xxh64", 8, XxHash64Digest::new);
+
+    private final String name;
+    private final int digestLength;
+    private final Supplier<MessageDigest> factory;
+    private final String zeroHash;
+
+    HashAlgorithm(String name, int digestLength, Supplier<MessageDigest> factory) {
+        this.name = name;
+        this.digestLength = digestLength;
+        this.factory = factory;
+        this.zeroHash = "0".repeat(digestLength << 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns length of digests in bytes.
+     */
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    public MessageDigest newDigest() {
+        return factory.get();
+    }
+
+    /**
+     * Returns a hash of zeros written for files that could not be hashed.
+     */
+    public String getZeroHash() {
+        return zeroHash;
+    }
+
+    /**
+     * Returns algorithm by case-insensitive name or {@code null} if it is not supported.
+     */
+    public static HashAlgorithm forName(String name) {
+        return Arrays.stream(values())
+                .filter(algorithm -> algorithm.name.equalsIgnoreCase(name))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static MessageDigest getInstance(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            // SHA-1 and SHA-256 are required to be supported by every Java platform
+            throw new AssertionError(algorithm + " is not supported", e);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of file hashes keyed by absolute path, size, modification time and file key.
+ * The cache file is read on the first lookup. {@link #save()} rewrites it with all entries but those
+ * not looked up for {@value #MAX_AGE} saves in a row, so entries of deleted or changed files age out.
+ * Entries are kept in flat primitive arrays: a 64-bit hash stands for the path and another one for the file key,
+ * so a slot takes {@code 33} bytes plus the digest, and the table is kept at most three quarters full.
+ * Paths with equal hashes share an entry, which then matches only the attributes of one of them.
+ * Instances are thread-safe.
+ */
+public class HashCache {
+    private static final int MAGIC = 0x57484332;
+    private static final int MAX_AGE = 8;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Path file;
+    private final HashAlgorithm algorithm;
+    private final int digestLength;
+    private boolean loaded;
+
+    // open addressing with linear probing, path hash 0 marks a free slot
+    private long[] paths;
+    private long[] sizes;
+    private long[] modificationTimes;
+    private long[] fileKeys;
+    private byte[] ages;
+    private byte[] digests;
+    private int entries;
+
+    /**
+     * @param algorithm algorithm of cached hashes. Entries of other algorithms are ignored.
+     */
+    public HashCache(Path file, HashAlgorithm algorithm) {
+        this.file = file;
+        this.algorithm = algorithm;
+        this.digestLength = algorithm.getDigestLength();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns cached hash of {@code path} or {@code null} if there is no entry matching {@code attrs}.
+     */
+    public synchronized String get(Path path, BasicFileAttributes attrs) {
+        load();
+        final int slot = find(pathHash(path));
+        if (paths[slot] == 0
+                || sizes[slot] != attrs.size()
+                || modificationTimes[slot] != modificationTime(attrs)
+                || fileKeys[slot] != fileKey(attrs)) {
+            return null;
+        }
+        ages[slot] = 0;
+        return FileHasher.toHex(Arrays.copyOfRange(digests, slot * digestLength, (slot + 1) * digestLength));
+    }
+
+    public synchronized void put(Path path, BasicFileAttributes attrs, String hash) {
+        load();
+        final byte[] digest = fromHex(hash);
+        if (digest.length != digestLength) {
+            return;
+        }
+        set(pathHash(path), attrs.size(), modificationTime(attrs), fileKey(attrs), (byte) 0, digest, 0);
+    }
+
+    public synchronized void save() throws IOException {
+        load();
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(algorithm.getName());
+            int kept = 0;
+            for (int slot = 0; slot < paths.length; slot++) {
+                if (paths[slot] != 0 && ages[slot] < MAX_AGE) {
+                    kept++;
+                }
+            }
+            out.writeInt(kept);
+            for (int slot = 0; slot < paths.length; slot++) {
+                if (paths[slot] == 0 || ages[slot] >= MAX_AGE) {
+                    continue;
+                }
+                out.writeLong(paths[slot]);
+                out.writeLong(sizes[slot]);
+                out.writeLong(modificationTimes[slot]);
+                out.writeLong(fileKeys[slot]);
+                out.writeByte(ages[slot]);
+                out.write(digests, slot * digestLength, digestLength);
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads the cache file once. Every loaded entry gets one save older until it is looked up.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                System.err.println("Ignoring hash cache " + file + ": unknown format");
+                return;
+            }
+            if (!in.readUTF().equals(algorithm.getName())) {
+                return;
+            }
+            final int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupted entry count " + count);
+            }
+            allocate(capacityFor(count));
+            final byte[] digest = new byte[digestLength];
+            for (int i = 0; i < count; i++) {
+                final long path = in.readLong();
+                final long size = in.readLong();
+                final long modificationTime = in.readLong();
+                final long fileKey = in.readLong();
+                final int age = in.readByte() + 1;
+                in.readFully(digest);
+                if (path != 0) {
+                    set(path, size, modificationTime, fileKey, (byte) age, digest, 0);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // no cache yet
+        } catch (IOException | SecurityException e) {
+            System.err.println("Ignoring hash cache " + file + ": " + e.getMessage());
+            allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    private void set(long path, long size, long modificationTime, long fileKey, byte age, byte[] digest, int offset) {
+        int slot = find(path);
+        if (paths[slot] == 0) {
+            if ((entries + 1) * 4L > paths.length * 3L) {
+                grow();
+                slot = find(path);
+            }
+            entries++;
+        }
+        paths[slot] = path;
+        sizes[slot] = size;
+        modificationTimes[slot] = modificationTime;
+        fileKeys[slot] = fileKey;
+        ages[slot] = age;
+        System.arraycopy(digest, offset, digests, slot * digestLength, digestLength);
+    }
+
+    /**
+     * Returns the slot of {@code path} or the free slot it would take.
+     */
+    private int find(long path) {
+        final int mask = paths.length - 1;
+        int slot = (int) path & mask;
+        while (paths[slot] != 0 && paths[slot] != path) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        final long[] oldPaths = paths;
+        final long[] oldSizes = sizes;
+        final long[] oldModificationTimes = modificationTimes;
+        final long[] oldFileKeys = fileKeys;
+        final byte[] oldAges = ages;
+        final byte[] oldDigests = digests;
+        allocate(oldPaths.length << 1);
+        for (int slot = 0; slot < oldPaths.length; slot++) {
+            if (oldPaths[slot] != 0) {
+                set(oldPaths[slot], oldSizes[slot], oldModificationTimes[slot], oldFileKeys[slot], oldAges[slot],
+                        oldDigests, slot * digestLength);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        paths = new long[capacity];
+        sizes = new long[capacity];
+        modificationTimes = new long[capacity];
+        fileKeys = new long[capacity];
+        ages = new byte[capacity];
+        digests = new byte[Math.multiplyExact(capacity, digestLength)];
+        entries = 0;
+    }
+
+    private static int capacityFor(int count) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3L < count * 4L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * 64-bit hash of the absolute path: FNV-1a over its chars followed by a murmur finalizer, never {@code 0}.
+     */
+    private static long pathHash(Path path) {
+        final long hash = mix(fnv(path.toAbsolutePath().normalize().toString()));
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long modificationTime(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Hash of the file key, {@code 0} if the file system has no file keys.
+     */
+    private static long fileKey(BasicFileAttributes attrs) {
+        final Object key = attrs.fileKey();
+        return key == null ? 0 : mix(fnv(key.toString()));
+    }
+
+    private static long fnv(String string) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static byte[] fromHex(String hex) {
+        final byte[] bytes = new byte[hex.length() >> 1];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex, i << 1, (i << 1) + 2, 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,205 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes {@code <hash> <file>} lines in submission order.
+ * With more than one thread files are hashed on a worker pool,
+ * at most {@link #WINDOW_PER_THREAD} files per thread are hashed ahead of the output.
+ * With an {@link AsyncFileHasher} reads are issued asynchronously instead, and a worker pool is not used.
+ * Lines are batched through a {@link BatchedLineWriter} and reach the underlying writer by {@link #close()} at the latest.
+ * An instance is meant to be fed by a single thread; independent instances share no state.
+ */
+public class HashWriter implements Closeable {
+    private static final int WINDOW_PER_THREAD = 64;
+
+    private final BatchedLineWriter writer;
+    private final FileHasher hasher;
+    private final HashCache cache;
+    private final WalkStats stats;
+    private final ExecutorService executor;
+    private final AsyncFileHasher engine;
+    private final int window;
+    private final Queue<PendingLine> pending = new ArrayDeque<>();
+
+    public HashWriter(Writer writer) {
+        this(writer, new FileHasher(), null, 1, new WalkStats());
+    }
+
+    /**
+     * @param cache hash cache to consult before hashing or {@code null}.
+     */
+    public HashWriter(Writer writer, FileHasher hasher, HashCache cache, int threads, WalkStats stats) {
+        this.writer = new BatchedLineWriter(writer);
+        this.hasher = hasher;
+        this.cache = cache;
+        this.stats = stats;
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        this.engine = null;
+        this.window = threads * WINDOW_PER_THREAD;
+    }
+
+    /**
+     * Creates a writer hashing files with {@code engine}. The engine is closed with this writer.
+     */
+    public HashWriter(Writer writer, FileHasher hasher, HashCache cache, AsyncFileHasher engine, WalkStats stats) {
+        this.writer = new BatchedLineWriter(writer);
+        this.hasher = hasher;
+        this.cache = cache;
+        this.stats = stats;
+        this.executor = null;
+        this.engine = engine;
+        this.window = engine.getInFlight() * WINDOW_PER_THREAD;
+    }
+
+    public void writeHash(Path file, String name) throws IOException {
+        writeHash(file, null, name);
+    }
+
+    /**
+     * @param attrs attributes of {@code file} if already known, {@code null} otherwise.
+     */
+    public void writeHash(Path file, BasicFileAttributes attrs, String name) throws IOException {
+        stats.fileVisited();
+        if (engine != null) {
+            enqueue(hashAsync(file, attrs), name);
+        } else if (executor == null) {
+            writeLine(hash(file, attrs), name);
+        } else {
+            enqueue(executor.submit(() -> hash(file, attrs)), name);
+        }
+    }
+
+    private String hash(Path file, BasicFileAttributes attrs) {
+        final BasicFileAttributes cacheAttrs = cacheAttributes(file, attrs);
+        final String cached = cached(file, cacheAttrs);
+        return cached != null ? cached : hashed(file, cacheAttrs, hasher.hash(file));
+    }
+
+    private Future<String> hashAsync(Path file, BasicFileAttributes attrs) throws IOException {
+        final BasicFileAttributes cacheAttrs = cacheAttributes(file, attrs);
+        final String cached = cached(file, cacheAttrs);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return engine.hash(file).thenApply(hash -> hashed(file, cacheAttrs, hash));
+    }
+
+    /**
+     * Returns attributes to key the cache with or {@code null} if the cache is not used for {@code file}.
+     * Walk attributes of a symbolic link describe the link, while its target is hashed, so they are read again.
+     */
+    private BasicFileAttributes cacheAttributes(Path file, BasicFileAttributes attrs) {
+        if (cache == null || attrs != null && !attrs.isSymbolicLink()) {
+            return attrs;
+        }
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private String cached(Path file, BasicFileAttributes attrs) {
+        if (cache == null || attrs == null) {
+            return null;
+        }
+        final String hash = cache.get(file, attrs);
+        if (hash != null) {
+            stats.cacheHit();
+        }
+        return hash;
+    }
+
+    private String hashed(Path file, BasicFileAttributes attrs, String hash) {
+        if (hash.equals(hasher.getDefaultHash())) {
+            stats.failedVisit();
+        } else if (cache != null && attrs != null) {
+            cache.put(file, attrs, hash);
+        }
+        return hash;
+    }
+
+    public void writeFailed(String name) throws IOException {
+        stats.fileVisited();
+        stats.failedVisit();
+        if (executor == null && engine == null) {
+            writeLine(hasher.getDefaultHash(), name);
+        } else {
+            enqueue(CompletableFuture.completedFuture(hasher.getDefaultHash()), name);
+        }
+    }
+
+    private void enqueue(Future<String> hash, String name) throws IOException {
+        while (pending.size() >= window) {
+            writeHead();
+        }
+        pending.add(new PendingLine(hash, name));
+        stats.queueDepth(pending.size());
+    }
+
+    private void writeHead() throws IOException {
+        PendingLine line = pending.poll();
+        stats.queueDepth(pending.size());
+        try {
+            final long start = System.nanoTime();
+            final String hash = line.hash.get();
+            stats.output(System.nanoTime() - start);
+            writeLine(hash, line.name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for hash of " + line.name);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to hash " + line.name, e.getCause());
+        }
+    }
+
+    private void writeLine(String hash, String name) throws IOException {
+        final long start = System.nanoTime();
+        writer.writeLine(hash, name);
+        stats.output(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes all pending lines and flushes the underlying writer without closing it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                writeHead();
+            }
+            writer.flush();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (engine != null) {
+                engine.close();
+            }
+        }
+    }
+
+    private static class PendingLine {
+        final Future<String> hash;
+        final String name;
+
+        PendingLine(Future<String> hash, String name) {
+            this.hash = hash;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Lists directories concurrently on a {@link ForkJoinPool}, but calls the visitor on the calling thread
+ * in the same order as {@link Files#walkFileTree(Path, FileVisitor)} does.
+ * Subdirectories are forked as soon as they are listed, so a slow directory delays only its own part of the output.
+ * At most {@link #LOOKAHEAD_PER_THREAD} directories per thread are listed ahead of the visitor,
+ * the rest are listed when the visitor gets close to them.
+ */
+public class ParallelFileTreeWalker implements AutoCloseable {
+    private static final int LOOKAHEAD_PER_THREAD = 64;
+
+    private final ForkJoinPool pool;
+    private final int lookahead;
+    private final WalkStats stats;
+
+    public ParallelFileTreeWalker(int threads) {
+        this(threads, new WalkStats());
+    }
+
+    public ParallelFileTreeWalker(int threads, WalkStats stats) {
+        this.pool = new ForkJoinPool(threads);
+        this.lookahead = threads * LOOKAHEAD_PER_THREAD;
+        this.stats = stats;
+    }
+
+    public void walkFileTree(Path start, FileVisitor<? super Path> visitor) throws IOException {
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(start, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            visitor.visitFileFailed(start, e);
+            return;
+        }
+        Node root = attrs.isDirectory()
+                ? new DirectoryNode(start, attrs, new ListingTask(start, pool, new Semaphore(lookahead), stats))
+                : new FileNode(start, attrs);
+        root.prefetch();
+        root.replay(visitor);
+    }
+
+    /**
+     * Cancels listing of directories that were not visited yet.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private abstract static class Node {
+        final Path path;
+
+        Node(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * Starts listing ahead of the visitor, returns {@code false} if the lookahead limit is reached.
+         */
+        boolean prefetch() {
+            return true;
+        }
+
+        abstract FileVisitResult replay(FileVisitor<? super Path> visitor) throws IOException;
+    }
+
+    private static class FileNode extends Node {
+        final BasicFileAttributes attrs;
+
+        FileNode(Path path, BasicFileAttributes attrs) {
+            super(path);
+            this.attrs = attrs;
+        }
+
+        @Override
+        FileVisitResult replay(FileVisitor<? super Path> visitor) throws IOException {
+            return visitor.visitFile(path, attrs);
+        }
+    }
+
+    private static class FailedNode extends Node {
+        final IOException exception;
+
+        FailedNode(Path path, IOException exception) {
+            super(path);
+            this.exception = exception;
+        }
+
+        @Override
+        FileVisitResult replay(FileVisitor<? super Path> visitor) throws IOException {
+            return visitor.visitFileFailed(path, exception);
+        }
+    }
+
+    private static class DirectoryNode extends Node {
+        final BasicFileAttributes attrs;
+        final ListingTask listing;
+        boolean started;
+
+        DirectoryNode(Path path, BasicFileAttributes attrs, ListingTask listing) {
+            super(path);
+            this.attrs = attrs;
+            this.listing = listing;
+        }
+
+        @Override
+        boolean prefetch() {
+            if (!started) {
+                started = listing.start();
+            }
+            return started;
+        }
+
+        @Override
+        FileVisitResult replay(FileVisitor<? super Path> visitor) throws IOException {
+            final Listing result = listing.take(started);
+            if (result.openError != null) {
+                return visitor.visitFileFailed(path, result.openError);
+            }
+            FileVisitResult visitResult = visitor.preVisitDirectory(path, attrs);
+            if (visitResult != FileVisitResult.CONTINUE) {
+                return visitResult == FileVisitResult.SKIP_SUBTREE ? FileVisitResult.CONTINUE : visitResult;
+            }
+            final List<Node> children = result.children;
+            int prefetched = 0;
+            for (int i = 0; i < children.size(); i++) {
+                prefetched = Math.max(prefetched, i);
+                while (prefetched < children.size() && children.get(prefetched).prefetch()) {
+                    prefetched++;
+                }
+                visitResult = children.get(i).replay(visitor);
+                if (visitResult == FileVisitResult.TERMINATE) {
+                    return visitResult;
+                }
+                if (visitResult == FileVisitResult.SKIP_SIBLINGS) {
+                    break;
+                }
+            }
+            return visitor.postVisitDirectory(path, result.iterationError);
+        }
+    }
+
+    private static class Listing {
+        final List<Node> children = new ArrayList<>();
+        IOException openError;
+        IOException iterationError;
+    }
+
+    private static class ListingTask extends RecursiveTask<Listing> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final transient ForkJoinPool pool;
+        private final transient Semaphore lookahead;
+        private final transient WalkStats stats;
+
+        ListingTask(Path directory, ForkJoinPool pool, Semaphore lookahead, WalkStats stats) {
+            this.directory = directory;
+            this.pool = pool;
+            this.lookahead = lookahead;
+            this.stats = stats;
+        }
+
+        /**
+         * Schedules listing if fewer than the lookahead limit of directories are listed and not yet visited.
+         */
+        boolean start() {
+            if (!lookahead.tryAcquire()) {
+                return false;
+            }
+            if (inForkJoinPool()) {
+                fork();
+            } else {
+                pool.execute(this);
+            }
+            return true;
+        }
+
+        /**
+         * Returns listing for the visitor, listing the directory on the calling thread if it was not {@link #start() started}.
+         */
+        Listing take(boolean started) {
+            if (!started) {
+                return invoke();
+            }
+            try {
+                return join();
+            } finally {
+                lookahead.release();
+            }
+        }
+
+        @Override
+        protected Listing compute() {
+            final long start = System.nanoTime();
+            try {
+                return list();
+            } finally {
+                stats.listed(System.nanoTime() - start);
+            }
+        }
+
+        private Listing list() {
+            final Listing listing = new Listing();
+            final DirectoryStream<Path> stream;
+            try {
+                stream = Files.newDirectoryStream(directory);
+            } catch (IOException e) {
+                listing.openError = e;
+                return listing;
+            }
+            try (stream) {
+                for (final Path child : stream) {
+                    final Node node = node(child);
+                    if (node != null) {
+                        listing.children.add(node);
+                    }
+                }
+            } catch (DirectoryIteratorException e) {
+                listing.iterationError = e.getCause();
+            } catch (IOException e) {
+                listing.iterationError = e;
+            }
+            return listing;
+        }
+
+        private Node node(Path child) {
+            final BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                return new FailedNode(child, e);
+            } catch (SecurityException e) {
+                // Files.walkFileTree silently skips inaccessible entries below the start
+                return null;
+            }
+            if (attrs.isDirectory()) {
+                final DirectoryNode node = new DirectoryNode(child, attrs, new ListingTask(child, pool, lookahead, stats));
+                node.prefetch();
+                return node;
+            }
+            return new FileNode(child, attrs);
+        }
+    }
+}
@@ -1,22 +1,20 @@
 package info.kgeorgiy.ja.murashov.walk;
 
 import java.io.*;
-import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 public class RecursiveWalk {
-    // :NOTE: 40 zeros
-    final static public String DEFAULT_HASH = "0000000000000000000000000000000000000000";
+    final static public String DEFAULT_HASH = HashAlgorithm.SHA_1.getZeroHash();
+
+    private static final FileHasher HASHER = new FileHasher();
 
     public static class HashFileVisitor implements FileVisitor<Path> {
-        private static BufferedWriter writer;
+        private final HashWriter writer;
 
-        public HashFileVisitor(BufferedWriter writer) {
-            HashFileVisitor.writer = writer;
+        public HashFileVisitor(HashWriter writer) {
+            this.writer = writer;
         }
 
         @Override
@@ -26,15 +24,13 @@ public class RecursiveWalk {
 
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-            writer.write(hash(file) + " " + file);
-            writer.newLine();
+            writer.writeHash(file, attrs, file.toString());
             return FileVisitResult.CONTINUE;
         }
 
         @Override
         public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-            writer.write(DEFAULT_HASH + " " + file);
-            writer.newLine();
+            writer.writeFailed(file.toString());
             return FileVisitResult.CONTINUE;
         }
 
@@ -66,60 +62,81 @@ public class RecursiveWalk {
     }
 
     public static void main(String[] args) {
-
-        if (!validateArgs(args)) {
+        WalkArguments arguments = WalkArguments.parse(args);
+        if (arguments == null) {
             return;
         }
+        HashCache cache = arguments.createCache();
+        WalkStats stats = new WalkStats();
+        stats.register("RecursiveWalk");
 
         // :NOTE: корректность путей, отсутствующие директории
         try (
-                BufferedReader reader = new BufferedReader(new FileReader(args[0], StandardCharsets.UTF_8));
-                BufferedWriter writer = new BufferedWriter(new FileWriter(args[1], StandardCharsets.UTF_8))
+                BufferedReader reader = new BufferedReader(new FileReader(arguments.getInputFile(), StandardCharsets.UTF_8));
+                Writer writer = newOutputWriter(arguments.getOutputFile());
+                HashWriter hashWriter = arguments.createHashWriter(writer, cache, stats);
+                ParallelFileTreeWalker walker = arguments.createWalker(stats)
         ) {
-            HashFileVisitor hashFileVisitor = new HashFileVisitor(writer);
-            String FileName;
-            while ((FileName = reader.readLine()) != null) {
+            walk(reader, hashWriter, walker);
+        } catch (IOException e) {
+            System.err.println("Error when operating input or output file: " + e.getMessage());
+        } catch (SecurityException e) {
+            System.err.println("Unable to access input or output file: " + e.getMessage());
+        }
+        saveCache(cache);
+        stats.unregister();
+    }
+
+    /**
+     * Hashes every file under each path read from {@code reader}.
+     * Walks with distinct {@code hashWriter}s share no state and may run concurrently.
+     *
+     * @param walker concurrent directory walker or {@code null} for {@link Files#walkFileTree(Path, FileVisitor)}.
+     */
+    public static void walk(BufferedReader reader, HashWriter hashWriter, ParallelFileTreeWalker walker) throws IOException {
+        HashFileVisitor hashFileVisitor = new HashFileVisitor(hashWriter);
+        String FileName;
+        while ((FileName = reader.readLine()) != null) {
+            try {
+                // :NOTE: FilePath name
+                Path FilePath = Paths.get(FileName);
                 try {
-                    // :NOTE: FilePath name
-                    Path FilePath = Paths.get(FileName);
-                    try {
+                    if (walker == null) {
                         Files.walkFileTree(FilePath, hashFileVisitor);
-                        // :NOTE: RuntimeException
-                    } catch (SecurityException e) {
-                        System.err.println("Unable to access " + FilePath + " " + e.getMessage());
+                    } else {
+                        walker.walkFileTree(FilePath, hashFileVisitor);
                     }
-                } catch (InvalidPathException e) {
-                    writer.write(DEFAULT_HASH + " " + FileName);
-                    writer.newLine();
-                    System.err.println("There is not such file to hash: " + e.getMessage());
+                    // :NOTE: RuntimeException
+                } catch (SecurityException e) {
+                    System.err.println("Unable to access " + FilePath + " " + e.getMessage());
                 }
+            } catch (InvalidPathException e) {
+                hashWriter.writeFailed(FileName);
+                System.err.println("There is not such file to hash: " + e.getMessage());
             }
-        } catch (IOException e) {
-            System.err.println("Error when operating input or output file: " + e.getMessage());
-        } catch (SecurityException e) {
-            System.err.println("Unable to access input or output file: " + e.getMessage());
         }
     }
 
-    public static String hash(Path file) {
-        InputStream fis;
-        // :NOTE: move to const
-        byte[] bytes = new byte[16384];
-        try {
-            fis = Files.newInputStream(file);
-            // :NOTE: readAllBytes
-            bytes = fis.readAllBytes();
-        } catch (Exception e) {
-            System.err.println("Unable to read a file: " + e.getMessage());
-            return DEFAULT_HASH;
+    static Writer newOutputWriter(String file) throws IOException {
+        return new OutputStreamWriter(
+                new BufferedOutputStream(new FileOutputStream(file), BatchedLineWriter.DEFAULT_CAPACITY),
+                StandardCharsets.UTF_8
+        );
+    }
+
+    static void saveCache(HashCache cache) {
+        if (cache == null) {
+            return;
         }
         try {
-            // :NOTE: move into a variable
-            final byte[] hash = MessageDigest.getInstance("SHA-1").digest(bytes);
-            return String.format("%0" + (hash.length << 1) + "x", new BigInteger(1, hash));
-        } catch (final NoSuchAlgorithmException ignored) {
+            cache.save();
+        } catch (IOException | SecurityException e) {
+            System.err.println("Unable to save hash cache: " + e.getMessage());
         }
-        return DEFAULT_HASH;
     }
 
-}
\ No newline at end of file
+    public static String hash(Path file) {
+        return HASHER.hash(file);
+    }
+
+}
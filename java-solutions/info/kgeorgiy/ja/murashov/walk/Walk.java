@@ -10,12 +10,17 @@ import java.nio.file.Paths;
 
 public class Walk extends RecursiveWalk {
     public static void main(String[] args) {
-        if (!validateArgs(args)) {
+        WalkArguments arguments = WalkArguments.parse(args);
+        if (arguments == null) {
             return;
         }
+        HashCache cache = arguments.createCache();
+        WalkStats stats = new WalkStats();
+        stats.register("Walk");
         try (
-                BufferedReader reader = new BufferedReader(new FileReader(args[0], StandardCharsets.UTF_8));
-                BufferedWriter writer = new BufferedWriter(new FileWriter(args[1], StandardCharsets.UTF_8))
+                BufferedReader reader = new BufferedReader(new FileReader(arguments.getInputFile(), StandardCharsets.UTF_8));
+                Writer writer = newOutputWriter(arguments.getOutputFile());
+                HashWriter hashWriter = arguments.createHashWriter(writer, cache, stats)
         ) {
             String FileName;
             while ((FileName = reader.readLine()) != null) {
@@ -23,15 +28,13 @@ public class Walk extends RecursiveWalk {
                     // :NOTE: FilePath name
                     Path FilePath = Paths.get(FileName);
                     try {
-                        writer.write(hash(FilePath) + " " + FileName);
-                        writer.newLine();
+                        hashWriter.writeHash(FilePath, FileName);
                         // :NOTE: RuntimeException
                     } catch (SecurityException e) {
                         System.err.println("Unable to access " + FilePath + " " + e.getMessage());
                     }
                 } catch (InvalidPathException e) {
-                    writer.write(DEFAULT_HASH + " " + FileName);
-                    writer.newLine();
+                    hashWriter.writeFailed(FileName);
                     System.err.println("There is not such file to hash: " + e.getMessage());
                 }
             }
@@ -40,5 +43,7 @@ public class Walk extends RecursiveWalk {
         } catch (SecurityException e) {
             System.err.println("Unable to access input or output file: " + e.getMessage());
         }
+        saveCache(cache);
+        stats.unregister();
     }
 }
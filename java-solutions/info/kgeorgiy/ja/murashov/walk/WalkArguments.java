@@ -0,0 +1,178 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.io.Writer;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class WalkArguments {
+    private static final String USAGE = "Usage: [--threads N] [--walk-threads N] [--in-flight N] [--algorithm sha-256|sha-1|xxh64] [--mmap-threshold BYTES] [--cache FILE] <inputFile> <outputFile>";
+
+    private String inputFile;
+    private String outputFile;
+    private int threads = 1;
+    private int walkThreads;
+    private int inFlight;
+    private HashAlgorithm algorithm = HashAlgorithm.SHA_1;
+    private long mapThreshold = FileHasher.DEFAULT_MAP_THRESHOLD;
+    private Path cacheFile;
+
+    private WalkArguments() {
+    }
+
+    public String getInputFile() {
+        return inputFile;
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns number of threads listing directories concurrently, {@code 0} for sequential traversal.
+     */
+    public int getWalkThreads() {
+        return walkThreads;
+    }
+
+    /**
+     * Returns limit of asynchronous reads in flight, {@code 0} if files are read synchronously.
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public long getMapThreshold() {
+        return mapThreshold;
+    }
+
+    public Path getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Returns a cache backed by {@code --cache} file or {@code null} if no cache was requested.
+     */
+    public HashCache createCache() {
+        return cacheFile == null ? null : new HashCache(cacheFile, algorithm);
+    }
+
+    /**
+     * Returns a concurrent directory walker or {@code null} if {@code --walk-threads} was not requested.
+     */
+    public ParallelFileTreeWalker createWalker(WalkStats stats) {
+        return walkThreads == 0 ? null : new ParallelFileTreeWalker(walkThreads, stats);
+    }
+
+    public FileHasher createHasher(WalkStats stats) {
+        return new FileHasher(algorithm, mapThreshold, stats);
+    }
+
+    /**
+     * Returns a writer hashing files with {@code --threads} threads,
+     * or with {@code --in-flight} asynchronous reads digested by {@code --threads} threads.
+     */
+    public HashWriter createHashWriter(Writer writer, HashCache cache, WalkStats stats) {
+        final FileHasher hasher = createHasher(stats);
+        if (inFlight == 0) {
+            return new HashWriter(writer, hasher, cache, threads, stats);
+        }
+        return new HashWriter(writer, hasher, cache, new AsyncFileHasher(algorithm, inFlight, threads, stats), stats);
+    }
+
+    /**
+     * Parses {@code [options] <inputFile> <outputFile>}.
+     * Prints the reason to {@code System.err} and returns {@code null} if arguments are invalid.
+     */
+    public static WalkArguments parse(String[] args) {
+        if (args == null) {
+            RecursiveWalk.validateArgs(null);
+            return null;
+        }
+        WalkArguments arguments = new WalkArguments();
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] == null || !args[i].startsWith("--")) {
+                    positional.add(args[i]);
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    System.err.println("Option " + args[i] + " requires a value");
+                    return null;
+                }
+                String value = args[++i];
+                switch (args[i - 1]) {
+                    case "--threads":
+                        arguments.threads = Integer.parseInt(value);
+                        if (arguments.threads < 1) {
+                            System.err.println("Number of threads has to be positive instead of " + value);
+                            return null;
+                        }
+                        break;
+                    case "--walk-threads":
+                        arguments.walkThreads = Integer.parseInt(value);
+                        if (arguments.walkThreads < 0) {
+                            System.err.println("Number of walk threads has to be non-negative instead of " + value);
+                            return null;
+                        }
+                        break;
+                    case "--in-flight":
+                        arguments.inFlight = Integer.parseInt(value);
+                        if (arguments.inFlight < 0) {
+                            System.err.println("Number of reads in flight has to be non-negative instead of " + value);
+                            return null;
+                        }
+                        break;
+                    case "--algorithm":
+                        arguments.algorithm = HashAlgorithm.forName(value);
+                        if (arguments.algorithm == null) {
+                            System.err.println("Unsupported hash algorithm " + value);
+                            System.err.println(USAGE);
+                            return null;
+                        }
+                        break;
+                    case "--mmap-threshold":
+                        arguments.mapThreshold = Long.parseLong(value);
+                        if (arguments.mapThreshold < 1) {
+                            System.err.println("Memory mapping threshold has to be positive instead of " + value);
+                            return null;
+                        }
+                        break;
+                    case "--cache":
+                        try {
+                            arguments.cacheFile = Path.of(value);
+                        } catch (InvalidPathException | NullPointerException e) {
+                            System.err.println("Invalid cache file: " + value);
+                            return null;
+                        }
+                        break;
+                    default:
+                        System.err.println("Unknown option " + args[i - 1]);
+                        System.err.println(USAGE);
+                        return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Option value has to be an integer: " + e.getMessage());
+            return null;
+        }
+        String[] files = positional.toArray(String[]::new);
+        if (!RecursiveWalk.validateArgs(files)) {
+            System.err.println(USAGE);
+            return null;
+        }
+        arguments.inputFile = files[0];
+        arguments.outputFile = files[1];
+        return arguments;
+    }
+}
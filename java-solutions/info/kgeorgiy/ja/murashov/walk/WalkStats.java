@@ -0,0 +1,136 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Walk counters. Recording is lock-free and may be done from any thread.
+ */
+public class WalkStats implements WalkStatsMXBean {
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final long start = System.nanoTime();
+    private final LongAdder filesVisited = new LongAdder();
+    private final LongAdder failedVisits = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder listingTime = new LongAdder();
+    private final LongAdder hashingTime = new LongAdder();
+    private final LongAdder outputTime = new LongAdder();
+    private volatile int queueDepth;
+    private ObjectName name;
+
+    void fileVisited() {
+        filesVisited.increment();
+    }
+
+    void failedVisit() {
+        failedVisits.increment();
+    }
+
+    void cacheHit() {
+        cacheHits.increment();
+    }
+
+    void hashed(long bytes, long nanos) {
+        bytesHashed.add(bytes);
+        hashingTime.add(nanos);
+    }
+
+    void listed(long nanos) {
+        listingTime.add(nanos);
+    }
+
+    void output(long nanos) {
+        outputTime.add(nanos);
+    }
+
+    void queueDepth(int depth) {
+        queueDepth = depth;
+    }
+
+    @Override
+    public long getFilesVisited() {
+        return filesVisited.sum();
+    }
+
+    @Override
+    public long getFailedVisits() {
+        return failedVisits.sum();
+    }
+
+    @Override
+    public long getBytesHashed() {
+        return bytesHashed.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public double getHashThroughput() {
+        final long elapsed = System.nanoTime() - start;
+        return elapsed == 0 ? 0 : getBytesHashed() / (double) (1 << 20) / elapsed * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public long getElapsedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Override
+    public long getListingTime() {
+        return TimeUnit.NANOSECONDS.toMillis(listingTime.sum());
+    }
+
+    @Override
+    public long getHashingTime() {
+        return TimeUnit.NANOSECONDS.toMillis(hashingTime.sum());
+    }
+
+    @Override
+    public long getOutputTime() {
+        return TimeUnit.NANOSECONDS.toMillis(outputTime.sum());
+    }
+
+    /**
+     * Registers these stats in the platform MBean server as
+     * {@code info.kgeorgiy.ja.murashov.walk:type=WalkStats,name=<walk>,id=<n>}.
+     * Failures are reported to {@code System.err}.
+     */
+    public void register(String walk) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(getClass().getPackageName()
+                    + ":type=WalkStats,name=" + ObjectName.quote(walk) + ",id=" + IDS.incrementAndGet());
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException | SecurityException e) {
+            System.err.println("Unable to register walk statistics: " + e.getMessage());
+        }
+    }
+
+    public void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException | SecurityException e) {
+            System.err.println("Unable to unregister walk statistics: " + e.getMessage());
+        }
+        name = null;
+    }
+}
@@ -0,0 +1,39 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+/**
+ * Progress of a running walk. Times are in milliseconds.
+ * Hashing and listing times are summed over all threads doing the work.
+ */
+public interface WalkStatsMXBean {
+    long getFilesVisited();
+
+    long getFailedVisits();
+
+    long getBytesHashed();
+
+    long getCacheHits();
+
+    /**
+     * Returns megabytes hashed per second since the walk started.
+     */
+    double getHashThroughput();
+
+    /**
+     * Returns number of files hashed ahead of the output in parallel mode.
+     */
+    int getQueueDepth();
+
+    long getElapsedTime();
+
+    /**
+     * Returns time spent listing directories by {@link ParallelFileTreeWalker}, {@code 0} for sequential walks.
+     */
+    long getListingTime();
+
+    long getHashingTime();
+
+    /**
+     * Returns time spent waiting for hashes and writing the output.
+     */
+    long getOutputTime();
+}
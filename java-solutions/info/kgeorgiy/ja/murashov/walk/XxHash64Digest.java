@@ -0,0 +1,171 @@
+package info.kgeorgiy.ja.murashov.walk;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * Streaming XXH64 with zero seed. The digest is the canonical big-endian representation of the hash.
+ */
+class XxHash64Digest extends MessageDigest {
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] buffer = new byte[STRIPE];
+    private int buffered;
+    private long total;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+
+    XxHash64Digest() {
+        super("XXH64");
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 8;
+    }
+
+    @Override
+    protected void engineReset() {
+        buffered = 0;
+        total = 0;
+        v1 = PRIME_1 + PRIME_2;
+        v2 = PRIME_2;
+        v3 = 0;
+        v4 = -PRIME_1;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+        total += length;
+        if (buffered > 0) {
+            final int n = Math.min(STRIPE - buffered, length);
+            System.arraycopy(input, offset, buffer, buffered, n);
+            buffered += n;
+            offset += n;
+            length -= n;
+            if (buffered < STRIPE) {
+                return;
+            }
+            stripe(buffer, 0);
+            buffered = 0;
+        }
+        for (; length >= STRIPE; offset += STRIPE, length -= STRIPE) {
+            stripe(input, offset);
+        }
+        System.arraycopy(input, offset, buffer, 0, length);
+        buffered = length;
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        if (input.hasArray()) {
+            engineUpdate(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+            return;
+        }
+        final ByteBuffer in = input.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int length = in.remaining();
+        int position = 0;
+        if (buffered > 0) {
+            final int n = Math.min(STRIPE - buffered, length);
+            in.get(position, buffer, buffered, n);
+            total += n;
+            buffered += n;
+            position += n;
+            length -= n;
+            if (buffered < STRIPE) {
+                input.position(input.limit());
+                return;
+            }
+            stripe(buffer, 0);
+            buffered = 0;
+        }
+        total += length;
+        for (; length >= STRIPE; position += STRIPE, length -= STRIPE) {
+            v1 = round(v1, in.getLong(position));
+            v2 = round(v2, in.getLong(position + 8));
+            v3 = round(v3, in.getLong(position + 16));
+            v4 = round(v4, in.getLong(position + 24));
+        }
+        in.get(position, buffer, 0, length);
+        buffered = length;
+        input.position(input.limit());
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long hash;
+        if (total >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else {
+            hash = PRIME_5;
+        }
+        hash += total;
+
+        int i = 0;
+        for (; i + 8 <= buffered; i += 8) {
+            hash ^= round(0, (long) LONG.get(buffer, i));
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        }
+        if (i + 4 <= buffered) {
+            hash ^= ((int) INT.get(buffer, i) & 0xFFFFFFFFL) * PRIME_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+            i += 4;
+        }
+        for (; i < buffered; i++) {
+            hash ^= (buffer[i] & 0xFF) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+
+        engineReset();
+        final byte[] digest = new byte[8];
+        for (int j = 7; j >= 0; j--) {
+            digest[j] = (byte) hash;
+            hash >>>= 8;
+        }
+        return digest;
+    }
+
+    private void stripe(byte[] input, int offset) {
+        v1 = round(v1, (long) LONG.get(input, offset));
+        v2 = round(v2, (long) LONG.get(input, offset + 8));
+        v3 = round(v3, (long) LONG.get(input, offset + 16));
+        v4 = round(v4, (long) LONG.get(input, offset + 24));
+    }
+
+    private static long round(long accumulator, long input) {
+        return Long.rotateLeft(accumulator + input * PRIME_2, 31) * PRIME_1;
+    }
+
+    private static long merge(long hash, long accumulator) {
+        return (hash ^ round(0, accumulator)) * PRIME_1 + PRIME_4;
+    }
+}